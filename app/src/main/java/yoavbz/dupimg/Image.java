@@ -1,10 +1,10 @@
 package yoavbz.dupimg;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.Rect;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.Log;
@@ -12,24 +12,31 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.exifinterface.media.ExifInterface;
+import androidx.room.ColumnInfo;
 import androidx.room.Entity;
-import androidx.room.Ignore;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
 import org.apache.commons.math3.ml.clustering.Clusterable;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
+import yoavbz.dupimg.background.ContentFingerprint;
 import yoavbz.dupimg.background.ImageClassifier;
 import yoavbz.dupimg.database.ImageDao;
 import yoavbz.dupimg.database.ImageDatabase;
+import yoavbz.dupimg.decode.BitmapDecoder;
+import yoavbz.dupimg.decode.BitmapPool;
+import yoavbz.dupimg.decode.ImageFormat;
+import yoavbz.dupimg.decode.ImageMetadata;
+import yoavbz.dupimg.decode.JpegDcDecoder;
+import yoavbz.dupimg.decode.ThumbnailStore;
 import yoavbz.dupimg.treeview.FileUtils;
 
-@Entity(tableName = "images")
+@Entity(tableName = "images", indices = @Index("fingerprint"))
 public class Image implements Parcelable, Clusterable {
 
 	public static final Creator<Image> CREATOR = new Creator<Image>() {
@@ -42,75 +49,173 @@ public class Image implements Parcelable, Clusterable {
 		}
 	};
 
-	@Ignore
-	@SuppressLint("SimpleDateFormat")
-	private static final DateFormat dateFormat = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss");
+	// The minimal EXIF thumbnail dimension worth classifying, instead of decoding the image
+	private static final int MIN_THUMBNAIL_SIZE = 120;
 
 	@PrimaryKey
 	@NonNull
 	private String path;
 	private long dateTaken;
 	private double[] point;
+	@Nullable
+	private String fingerprint;
+	@ColumnInfo(defaultValue = "0")
+	private boolean thumbnailDecoded;
+	// The metadata extracted by ImageMetadata, lastModified is 0 if it wasn't extracted yet
+	@ColumnInfo(defaultValue = "0")
+	private int orientation;
+	@ColumnInfo(defaultValue = "0")
+	private int width;
+	@ColumnInfo(defaultValue = "0")
+	private int height;
+	@ColumnInfo(defaultValue = "0")
+	private long fileSize;
+	@ColumnInfo(defaultValue = "0")
+	private long lastModified;
 
 	public Image() {
 	}
 
 	/**
 	 * Constructor for Image object:
-	 * Extracts EXIF DATETIME attributes, fallbacks to the file lastModified date if unavailable
-	 * In addition, generates feature vector
+	 * Extracts the image metadata (see {@link ImageMetadata}), and generates feature vector.
+	 * The decoded image is stored as a thumbnail as well (see {@link ThumbnailStore}).
 	 *
 	 * @param path       The image path
-	 * @param context    A context for accessing {@link ImageDatabase}
+	 * @param context    A context for accessing {@link ImageDatabase} and {@link ThumbnailStore}
 	 * @param classifier A TensorFlow Lite classifier, for generating feature vector (vector field)
+	 * @throws IOException If the file isn't a supported image, or couldn't be decoded
+	 */
+	public Image(@NonNull String path, @NonNull Context context, @NonNull ImageClassifier classifier)
+			throws IOException {
+		this(path, context, classifier, false);
+	}
+
+	/**
+	 * Same as {@link #Image(String, Context, ImageClassifier)}, optionally classifying the embedded EXIF
+	 * thumbnail instead of decoding the image, when the thumbnail is large enough
+	 *
+	 * @param useExifThumbnail Whether to try the EXIF thumbnail first, see {@link #isThumbnailDecoded()}
+	 */
+	public Image(@NonNull String path, @NonNull Context context, @NonNull ImageClassifier classifier,
+	             boolean useExifThumbnail) throws IOException {
+		this(path, context, classifier, useExifThumbnail, false);
+	}
+
+	/**
+	 * Same as {@link #Image(String, Context, ImageClassifier, boolean)}, optionally decoding JPEGs at 1/8 scale
+	 * by {@link JpegDcDecoder} instead of {@link BitmapDecoder}, falling back to the latter if the scaled image is
+	 * smaller than the model input, or couldn't be decoded
+	 *
+	 * @param useDcDecoder Whether to decode JPEGs by {@link JpegDcDecoder}
+	 */
+	public Image(@NonNull String path, @NonNull Context context, @NonNull ImageClassifier classifier,
+	             boolean useExifThumbnail, boolean useDcDecoder) throws IOException {
+		this(path, null, context, classifier.getInputSize(), useExifThumbnail, useDcDecoder,
+		     classifier.getInputBuffer());
+		point = classifier.recognizePixels(classifier.getInputBuffer());
+	}
+
+	/**
+	 * Same as {@link #Image(String, Context, ImageClassifier, boolean, boolean)}, without classifying: the image is
+	 * decoded into the given input buffer, and the feature vector should be set by {@link #setPoint(double[])}
+	 * after classifying it (e.g. by {@link ImageClassifier#recognizeBatch}, along with other images)
+	 *
+	 * @param data      The image file content if already read, null to read it from the path
+	 * @param inputSize The model input size, in pixels per dimension
+	 * @param input     The buffer to decode the model input into, from {@link ImageClassifier#createInputBuffer()}
+	 */
+	public Image(@NonNull String path, @Nullable byte[] data, @NonNull Context context, int inputSize,
+	             boolean useExifThumbnail, boolean useDcDecoder, @NonNull ByteBuffer input) throws IOException {
+		this.path = path;
+		// Sniffing the header first, so unsupported files are rejected before the (expensive) decoding
+		ImageFormat format = data != null ? ImageFormat.sniff(data, data.length) : ImageFormat.sniff(new File(path));
+		if (!format.isSupported()) {
+			throw new IOException("Unsupported image format (" + format + "): " + path);
+		}
+		if (format == ImageFormat.HEIC) {
+			// Reading HEIF metadata needs a seekable file rather than a stream
+			data = null;
+		}
+		// Reading the EXIF once, for both the thumbnail and the metadata
+		ExifInterface exif = readExif(data);
+		ImageMetadata metadata = ImageMetadata.read(path, exif);
+		setMetadata(metadata);
+		Bitmap thumbnail = useExifThumbnail && exif != null ? getExifThumbnail(exif) : null;
+		if (thumbnail != null) {
+			thumbnailDecoded = true;
+		} else if (useDcDecoder && format == ImageFormat.JPEG && decodeDcImage(data, inputSize, input)) {
+			return;
+		}
+		if (thumbnail == null) {
+			thumbnail = getScaledBitmap(data, ThumbnailStore.getInstance(context), metadata);
+		}
+		try {
+			ImageClassifier.fillInput(thumbnail, input);
+		} finally {
+			BitmapPool.getInstance().put(thumbnail);
+		}
+	}
+
+	/**
+	 * Constructor for an Image whose feature vector is already known (e.g. a byte-identical copy of a classified
+	 * image), skipping the decoding and classification
+	 *
+	 * @param path    The image path
+	 * @param context A context for accessing {@link ImageDatabase}
+	 * @param point   The feature vector to share
 	 */
-	public Image(@NonNull String path, @NonNull Context context, @NonNull ImageClassifier classifier) {
+	public Image(@NonNull String path, @NonNull Context context, @NonNull double[] point) {
 		this.path = path;
-		point = classifier.recognizeImage(getScaledBitmap());
-		getDateTaken(context);
+		this.point = point;
+		setMetadata(ImageMetadata.read(path));
 	}
 
 	private Image(@NonNull Parcel in) {
 		path = in.readString();
 		dateTaken = in.readLong();
 		point = in.createDoubleArray();
+		fingerprint = in.readString();
+		thumbnailDecoded = in.readByte() != 0;
+		orientation = in.readInt();
+		width = in.readInt();
+		height = in.readInt();
+		fileSize = in.readLong();
+		lastModified = in.readLong();
 	}
 
 	public static void delete(String path, Context context) {
 		ImageDao dao = ImageDatabase.getAppDatabase(context).imageDao();
 		if (FileUtils.deleteFile(context, new File(path))) {
 			dao.delete(path);
+			ThumbnailStore.getInstance(context).remove(path);
 			Log.d(MainActivity.TAG, "Image: Deleted " + path);
 		} else {
 			Log.e(MainActivity.TAG, "Image: Couldn't delete path " + path);
 		}
 	}
 
+	/**
+	 * @param targetSize The minimal width and height of the bitmap, see {@link BitmapDecoder#decodeSampled}
+	 * @return The image bitmap, decoded subsampled close to targetSize and rotated upright, null on failure
+	 */
 	@Nullable
-	public Bitmap getOrientedBitmap() {
+	public Bitmap getOrientedBitmap(int targetSize) {
 		try {
-			int rotation;
-			// Extracting rotation state
-			ExifInterface exif = new ExifInterface(path);
-			switch (exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_UNDEFINED)) {
-				case ExifInterface.ORIENTATION_ROTATE_90:
-					rotation = 90;
-					break;
-				case ExifInterface.ORIENTATION_ROTATE_180:
-					rotation = 180;
-					break;
-				case ExifInterface.ORIENTATION_ROTATE_270:
-					rotation = 270;
-					break;
-				default:
-					rotation = ExifInterface.ORIENTATION_UNDEFINED;
-			}
+			// Extracting rotation state, from the stored metadata if available
+			int rotation = lastModified != 0 ? orientation : ImageMetadata.read(path).getOrientation();
 
 			// Constructing a Bitmap
-			Bitmap bitmap = BitmapFactory.decodeFile(path);
+			Bitmap bitmap = BitmapDecoder.decodeSampled(path, targetSize);
+			if (rotation == 0) {
+				return bitmap;
+			}
 			Matrix rotationMatrix = new Matrix();
 			rotationMatrix.postRotate(rotation);
-			return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), rotationMatrix, false);
+			Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(),
+			                                     rotationMatrix, false);
+			BitmapPool.getInstance().put(bitmap);
+			return rotated;
 		} catch (Exception e) {
 			Log.e(MainActivity.TAG, "Got an exception while constructing oriented Bitmap", e);
 		}
@@ -136,22 +241,92 @@ public class Image implements Parcelable, Clusterable {
 
 	public long getDateTaken(Context context) {
 		if (dateTaken == 0) {
-			try (InputStream in = new FileInputStream(path)) {
-				// Extracting DATETIME_ORIGINAL
-				ExifInterface exif = new ExifInterface(in);
-				String date = exif.getAttribute(ExifInterface.TAG_DATETIME_ORIGINAL);
-				dateTaken = dateFormat.parse(date).getTime();
-			} catch (Exception e) {
-				Log.e(MainActivity.TAG, "Image - Got an exception while extracting date from " + path, e);
-				// Fallback - Extracting creationTime attribute
-				dateTaken = new File(path).lastModified();
-			}
+			setMetadata(ImageMetadata.read(path));
 			// Update image in DB
 			ImageDatabase.getAppDatabase(context).imageDao().update(this);
 		}
 		return dateTaken;
 	}
 
+	private void setMetadata(@NonNull ImageMetadata metadata) {
+		dateTaken = metadata.getDateTaken();
+		orientation = metadata.getOrientation();
+		width = metadata.getWidth();
+		height = metadata.getHeight();
+		fileSize = metadata.getFileSize();
+		lastModified = metadata.getLastModified();
+	}
+
+	@Nullable
+	private ExifInterface readExif(@Nullable byte[] data) {
+		try {
+			return data != null ? new ExifInterface(new ByteArrayInputStream(data)) : new ExifInterface(path);
+		} catch (IOException e) {
+			Log.e(MainActivity.TAG, "Image - Couldn't read the EXIF of " + path, e);
+			return null;
+		}
+	}
+
+	/**
+	 * The thumbnail is left in the stored (unrotated) orientation, like the full and the 1/8 scale decodes are, so
+	 * the feature vectors of images classified either way stay comparable for clustering
+	 *
+	 * @return The embedded EXIF thumbnail scaled to 224x224 pixels, or null if missing or too small
+	 */
+	@Nullable
+	private Bitmap getExifThumbnail(@NonNull ExifInterface exif) {
+		if (!exif.hasThumbnail()) {
+			return null;
+		}
+		Bitmap thumbnail;
+		try {
+			thumbnail = exif.isThumbnailCompressed() ?
+					BitmapDecoder.decodeByteArray(exif.getThumbnailBytes()) : exif.getThumbnailBitmap();
+		} catch (IOException e) {
+			return null;
+		}
+		if (thumbnail == null || Math.min(thumbnail.getWidth(), thumbnail.getHeight()) < MIN_THUMBNAIL_SIZE) {
+			BitmapPool.getInstance().put(thumbnail);
+			return null;
+		}
+		// Not applying the EXIF orientation, see above
+		return scaleToInput(thumbnail);
+	}
+
+	/**
+	 * Decodes the image at 1/8 scale by {@link JpegDcDecoder}, written straight into the given model input
+	 *
+	 * @return false if the image couldn't be decoded, or is smaller than the model input
+	 */
+	private boolean decodeDcImage(@Nullable byte[] data, int inputSize, @NonNull ByteBuffer input) {
+		JpegDcDecoder.DcImage image;
+		try {
+			image = data != null ? JpegDcDecoder.decode(data, data.length) : JpegDcDecoder.decode(new File(path));
+		} catch (IOException e) {
+			Log.d(MainActivity.TAG, "Image: Couldn't decode " + path + " at 1/8 scale: " + e.getMessage());
+			return false;
+		}
+		if (image.getWidth() < inputSize || image.getHeight() < inputSize) {
+			return false;
+		}
+		input.clear();
+		image.writeRgb(input, inputSize);
+		return true;
+	}
+
+	/**
+	 * Scales the given bitmap into a pooled 224x224 bitmap, returning the given bitmap to the pool
+	 */
+	@NonNull
+	private static Bitmap scaleToInput(@NonNull Bitmap bitmap) {
+		BitmapPool pool = BitmapPool.getInstance();
+		Bitmap scaled = pool.get(224, 224, Bitmap.Config.ARGB_8888);
+		// Drawing without filtering, the same as Bitmap.createScaledBitmap(bitmap, 224, 224, false)
+		new Canvas(scaled).drawBitmap(bitmap, null, new Rect(0, 0, 224, 224), null);
+		pool.put(bitmap);
+		return scaled;
+	}
+
 	@NonNull
 	@Override
 	public String toString() {
@@ -159,11 +334,82 @@ public class Image implements Parcelable, Clusterable {
 	}
 
 	/**
-	 * @return A scaled Bitmap representation of the image (224x224 pixels)
+	 * @return A scaled Bitmap representation of the image (224x224 pixels), decoded subsampled
+	 * by {@link BitmapDecoder}. Should be returned to {@link BitmapPool} after use.
+	 * The decoded image is stored in the given {@link ThumbnailStore} as well, before scaling.
+	 */
+	private Bitmap getScaledBitmap(@Nullable byte[] data, @NonNull ThumbnailStore store,
+	                               @NonNull ImageMetadata metadata) throws IOException {
+		Bitmap bitmap = data != null ? BitmapDecoder.decodeSampled(data, 224) : BitmapDecoder.decodeSampled(path, 224);
+		store.put(path, bitmap, metadata);
+		return scaleToInput(bitmap);
+	}
+
+	/**
+	 * @return The content fingerprint, see {@link ContentFingerprint}
+	 */
+	@Nullable
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	public void setFingerprint(@Nullable String fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * @return true if the feature vector was generated from the EXIF thumbnail, and may be refined by
+	 * classifying the full image
 	 */
-	private Bitmap getScaledBitmap() {
-		Bitmap bitmap = BitmapFactory.decodeFile(path);
-		return Bitmap.createScaledBitmap(bitmap, 224, 224, false);
+	public boolean isThumbnailDecoded() {
+		return thumbnailDecoded;
+	}
+
+	public void setThumbnailDecoded(boolean thumbnailDecoded) {
+		this.thumbnailDecoded = thumbnailDecoded;
+	}
+
+	/**
+	 * @return The clockwise rotation (in degrees) needed for displaying the image upright
+	 */
+	public int getOrientation() {
+		return orientation;
+	}
+
+	public void setOrientation(int orientation) {
+		this.orientation = orientation;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public void setWidth(int width) {
+		this.width = width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public void setHeight(int height) {
+		this.height = height;
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public void setFileSize(long fileSize) {
+		this.fileSize = fileSize;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public void setLastModified(long lastModified) {
+		this.lastModified = lastModified;
 	}
 
 	@Override
@@ -180,6 +426,13 @@ public class Image implements Parcelable, Clusterable {
 		dest.writeString(path);
 		dest.writeLong(dateTaken);
 		dest.writeDoubleArray(point);
+		dest.writeString(fingerprint);
+		dest.writeByte((byte) (thumbnailDecoded ? 1 : 0));
+		dest.writeInt(orientation);
+		dest.writeInt(width);
+		dest.writeInt(height);
+		dest.writeLong(fileSize);
+		dest.writeLong(lastModified);
 	}
 
 	@Override
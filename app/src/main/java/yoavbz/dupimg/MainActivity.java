@@ -2,10 +2,8 @@ package yoavbz.dupimg;
 
 import android.app.ActivityOptions;
 import android.app.NotificationManager;
-import android.app.job.JobInfo;
 import android.app.job.JobScheduler;
 import android.content.BroadcastReceiver;
-import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -34,7 +32,6 @@ import androidx.core.view.GravityCompat;
 import androidx.drawerlayout.widget.DrawerLayout;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
-import com.bumptech.glide.Glide;
 import com.google.android.material.navigation.NavigationView;
 
 import org.apache.commons.math3.ml.clustering.Cluster;
@@ -44,9 +41,9 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import yoavbz.dupimg.background.ChangeJournal;
 import yoavbz.dupimg.background.ClassificationTask;
 import yoavbz.dupimg.background.NotificationJobService;
 import yoavbz.dupimg.gallery.GalleryView;
@@ -119,7 +116,7 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
 	}
 
 	/**
-	 * In addition to the app destruction, cancels asyncTask if running and clears Glide disk cache
+	 * In addition to the app destruction, cancels asyncTask if running
 	 */
 	@Override
 	protected void onDestroy() {
@@ -128,10 +125,6 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
 			notificationManager.cancel(SCANNING_NOTIFICATION_ID);
 			asyncTask.cancel(true);
 		}
-		new Thread(() -> {
-			Glide.get(this).clearDiskCache();
-			Log.d(TAG, "onDestroy: Cleared Glide cache");
-		}).start();
 		super.onDestroy();
 	}
 
@@ -168,16 +161,12 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
 		monitorSwitch.setOnCheckedChangeListener((view, isChecked) -> {
 			if (isChecked) {
 				// Turn on background jobService
-				JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(getPackageName(),
-				                                                            NotificationJobService.class.getName()))
-						.setPeriodic(TimeUnit.MINUTES.toMillis(15))
-						.setPersisted(true)
-						.setRequiresBatteryNotLow(true)
-						.build();
-				scheduler.schedule(job);
+				NotificationJobService.schedule(this);
+				ChangeJournal.getInstance(this).start();
 			} else {
 				// Turn off background jobService
 				scheduler.cancel(JOB_ID);
+				ChangeJournal.getInstance(this).stop();
 			}
 			pref.edit()
 			    .putBoolean("isJobSchedule", isChecked)
@@ -237,7 +226,14 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
 		switch (requestCode) {
 			case IMAGE_CLUSTER_ACTIVITY_CODE:
 				if (resultCode == RESULT_OK) {
-					if (!isCustomScan.get()) {
+					if (isAsyncTaskRunning.get()) {
+						// Deleted from partial clusters, the running scan will exclude them from its results
+						List<String> deleted = data.getStringArrayListExtra("deleted");
+						asyncTask.onImagesDeleted(deleted);
+						List<Image> shownImages = galleryView.getAllImages();
+						shownImages.removeIf(img -> deleted.contains(img.getPath()));
+						galleryView.setImageClusters(new DBSCANClusterer<Image>(1.65, 2).cluster(shownImages));
+					} else if (!isCustomScan.get()) {
 						rescanImages();
 					} else {
 						DBSCANClusterer<Image> clusterer = new DBSCANClusterer<>(1.65, 2);
@@ -368,28 +364,29 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
 				// Changing the default directories to scan, using DirectoryTreeView
 				DirectoryTreeView dirTreeView = new DirectoryTreeView(this);
 				Set<String> selectedDirs = new HashSet<>();
-				dirTreeView.setOnDirStateChangeListener((dir, state) -> {
-					if (state == Directory.DirState.FULL) {
-						selectedDirs.add(dir.getFile().getPath());
-					} else if (state == Directory.DirState.NONE) {
-						selectedDirs.remove(dir.getFile().getPath());
-					}
-				});
+				dirTreeView.setOnDirStateChangeListener((dir, state) ->
+						Directory.updateSelection(selectedDirs, dir.getFile().getPath(), state));
 				Set<String> paths = PreferenceManager.getDefaultSharedPreferences(this)
 				                                     .getStringSet("dirs", new ArraySet<>());
 				for (String path : paths) {
-					dirTreeView.checkDirs(path);
+					// Partially selected dirs are restored by checking their selected sub-directories
+					if (!Directory.isTopLevelOnly(path)) {
+						dirTreeView.checkDirs(path);
+					}
 				}
 				new AlertDialog.Builder(this)
 						.setTitle("Select directories to scan:")
 						.setView(dirTreeView)
 						.setPositiveButton("OK", (dialog, which) -> {
 							for (String dir : selectedDirs) {
-								FileUtils.showSdcardDialogIfNeeded(this, dir);
+								FileUtils.showSdcardDialogIfNeeded(this, Directory.getDirPath(dir));
 							}
 							PreferenceManager.getDefaultSharedPreferences(this).edit()
 							                 .putStringSet("dirs", selectedDirs)
 							                 .apply();
+							if (ChangeJournal.isEnabled(this)) {
+								ChangeJournal.getInstance(this).start();
+							}
 							rescanImages();
 						})
 						.setNegativeButton("Cancel", null)
@@ -399,25 +396,23 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
 				// Performing custom scan, using DirectoryTreeView to select dirs
 				dirTreeView = new DirectoryTreeView(this);
 				selectedDirs = new HashSet<>();
-				dirTreeView.setOnDirStateChangeListener((dir, state) -> {
-					if (state == Directory.DirState.FULL) {
-						selectedDirs.add(dir.getFile().getAbsolutePath());
-					} else if (state == Directory.DirState.NONE) {
-						selectedDirs.remove(dir.getFile().getAbsolutePath());
-					}
-				});
+				dirTreeView.setOnDirStateChangeListener((dir, state) ->
+						Directory.updateSelection(selectedDirs, dir.getFile().getAbsolutePath(), state));
 				new AlertDialog.Builder(this)
 						.setTitle("Select directories to scan:")
 						.setView(dirTreeView)
 						.setPositiveButton("OK", (dialog, which) -> {
 							for (String dir : selectedDirs) {
-								FileUtils.showSdcardDialogIfNeeded(this, dir);
+								FileUtils.showSdcardDialogIfNeeded(this, Directory.getDirPath(dir));
 							}
 							rescanImages(selectedDirs.toArray(new String[0]));
 						})
 						.setNegativeButton("Cancel", null)
 						.show();
 				break;
+			case R.id.nav_settings:
+				startActivity(new Intent(this, SettingsActivity.class));
+				break;
 			case R.id.nav_about:
 				// Displaying about dialog
 				final SpannableString message = new SpannableString(
@@ -5,6 +5,8 @@ import android.content.Context;
 import org.acra.ACRA;
 import org.acra.annotation.AcraMailSender;
 import org.acra.annotation.AcraNotification;
+import yoavbz.dupimg.background.ChangeJournal;
+import yoavbz.dupimg.background.ClassifierHolder;
 
 @AcraMailSender(mailTo = "yoav.bz4@gmail.com")
 @AcraNotification(resTitle = R.string.crash_title,
@@ -16,4 +18,27 @@ public class MainApplication extends Application {
 		super.attachBaseContext(base);
 		ACRA.init(this);
 	}
+
+	/**
+	 * Starts journaling image changes for as long as the process is alive, if background monitoring is on
+	 */
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		if (ACRA.isACRASenderServiceProcess()) {
+			return;
+		}
+		if (ChangeJournal.isEnabled(this)) {
+			ChangeJournal.getInstance(this).start();
+		}
+	}
+
+	/**
+	 * Releases the idle warm classifiers when memory is needed
+	 */
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		ClassifierHolder.getInstance(this).onTrimMemory(level);
+	}
 }
@@ -0,0 +1,66 @@
+package yoavbz.dupimg;
+
+import android.content.SharedPreferences;
+import android.os.Bundle;
+
+import androidx.annotation.Nullable;
+import androidx.appcompat.app.ActionBar;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.preference.PreferenceFragmentCompat;
+
+import yoavbz.dupimg.background.NotificationJobService;
+
+/**
+ * Shows the scanning, background service and performance preferences
+ */
+public class SettingsActivity extends AppCompatActivity {
+
+	@Override
+	protected void onCreate(@Nullable Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		ActionBar actionBar = getSupportActionBar();
+		if (actionBar != null) {
+			actionBar.setDisplayHomeAsUpEnabled(true);
+		}
+		if (savedInstanceState == null) {
+			getSupportFragmentManager().beginTransaction()
+			                           .replace(android.R.id.content, new SettingsFragment())
+			                           .commit();
+		}
+	}
+
+	@Override
+	public boolean onSupportNavigateUp() {
+		finish();
+		return true;
+	}
+
+	public static class SettingsFragment extends PreferenceFragmentCompat
+			implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+		@Override
+		public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
+			setPreferencesFromResource(R.xml.preferences, rootKey);
+		}
+
+		@Override
+		public void onResume() {
+			super.onResume();
+			getPreferenceScreen().getSharedPreferences().registerOnSharedPreferenceChangeListener(this);
+		}
+
+		@Override
+		public void onPause() {
+			getPreferenceScreen().getSharedPreferences().unregisterOnSharedPreferenceChangeListener(this);
+			super.onPause();
+		}
+
+		@Override
+		public void onSharedPreferenceChanged(SharedPreferences pref, String key) {
+			// Rescheduling the background job by the new trigger, if it's on
+			if ("jobTrigger".equals(key) && pref.getBoolean("isJobSchedule", true)) {
+				NotificationJobService.schedule(requireContext());
+			}
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package yoavbz.dupimg.background;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import static yoavbz.dupimg.MainActivity.TAG;
+
+/**
+ * Reschedules the background job after boot, since content-triggered jobs can't be persisted
+ */
+public class BootReceiver extends BroadcastReceiver {
+
+	@Override
+	public void onReceive(Context context, Intent intent) {
+		if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction()) &&
+				PreferenceManager.getDefaultSharedPreferences(context).getBoolean("isJobSchedule", true)) {
+			Log.d(TAG, "BootReceiver: Rescheduling background job");
+			NotificationJobService.schedule(context);
+		}
+	}
+}
@@ -0,0 +1,287 @@
+package yoavbz.dupimg.background;
+
+import android.content.Context;
+import android.os.FileObserver;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import yoavbz.dupimg.database.ImageDatabase;
+import yoavbz.dupimg.database.JournalDao;
+import yoavbz.dupimg.database.JournalEntry;
+import yoavbz.dupimg.decode.ImageFormat;
+import yoavbz.dupimg.treeview.Directory;
+
+import static yoavbz.dupimg.MainActivity.TAG;
+
+/**
+ * A persistent journal of image changes in the selected directories, fed by {@link FileObserver}s while the app
+ * process is alive. Allows {@link NotificationJobService} to process only the journaled changes, instead of listing
+ * every directory.
+ * <p>
+ * Since nothing is observed while the process is dead, {@link #start()} journals a gap, which marks the journal
+ * as possibly incomplete until the next full scan consumes it. The entries before a gap are never processed one by
+ * one, so a gap replaces them, and a journal growing past {@link #MAX_ENTRIES} is replaced by a gap as well.
+ * The journal runs only while background monitoring ("isJobSchedule" preference) is on.
+ * All the journal operations run on a single thread, so a snapshot is always taken after a pending start.
+ */
+public class ChangeJournal {
+
+	private static final int EVENTS = FileObserver.CREATE | FileObserver.MOVED_TO | FileObserver.CLOSE_WRITE |
+			FileObserver.DELETE | FileObserver.MOVED_FROM | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+	// inotify flag for events on sub-directories, not exposed by FileObserver
+	private static final int IS_DIR = 0x40000000;
+	// Beyond that many changes, a full listing is about as cheap as processing them one by one
+	private static final int MAX_ENTRIES = 10000;
+	private static ChangeJournal INSTANCE;
+
+	private final Context context;
+	private final JournalDao dao;
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	// Observers must be strongly referenced, and are accessed only from the executor thread
+	private final Map<String, DirObserver> observers = new HashMap<>();
+	// Partially selected directories, observed without their sub-directories
+	private final Set<String> topLevelDirs = new HashSet<>();
+
+	private ChangeJournal(@NonNull Context context) {
+		this.context = context.getApplicationContext();
+		dao = ImageDatabase.getAppDatabase(context).journalDao();
+	}
+
+	public static synchronized ChangeJournal getInstance(@NonNull Context context) {
+		if (INSTANCE == null) {
+			INSTANCE = new ChangeJournal(context);
+		}
+		return INSTANCE;
+	}
+
+	/**
+	 * @return true if the journal should run, by the background monitoring preference
+	 */
+	public static boolean isEnabled(@NonNull Context context) {
+		return PreferenceManager.getDefaultSharedPreferences(context).getBoolean("isJobSchedule", true);
+	}
+
+	/**
+	 * (Re)starts observing the selected directories, journaling a gap for the unobserved period before.
+	 * Should be called when the process starts and whenever the selected directories change (if {@link
+	 * #isEnabled(Context)}), and when background monitoring is turned on.
+	 */
+	public void start() {
+		executor.execute(() -> {
+			stopObserving(null);
+			dao.replaceWithGap("");
+			Set<String> dirs = PreferenceManager.getDefaultSharedPreferences(context)
+			                                    .getStringSet("dirs", Collections.emptySet());
+			for (String dir : dirs) {
+				if (Directory.isTopLevelOnly(dir)) {
+					File topLevelDir = new File(Directory.getDirPath(dir));
+					topLevelDirs.add(topLevelDir.getAbsolutePath());
+					observeDir(topLevelDir);
+				} else {
+					observeTree(new File(dir));
+				}
+			}
+			Log.d(TAG, "ChangeJournal: Observing " + observers.size() + " directories");
+		});
+	}
+
+	/**
+	 * Stops observing and clears the journal, when background monitoring is turned off
+	 */
+	public void stop() {
+		executor.execute(() -> {
+			stopObserving(null);
+			dao.deleteAll();
+			Log.d(TAG, "ChangeJournal: Stopped");
+		});
+	}
+
+	/**
+	 * Takes a snapshot of the journal. Should be called from a background thread.
+	 *
+	 * @return The current journal entries
+	 */
+	@NonNull
+	public Snapshot snapshot() throws InterruptedException {
+		try {
+			return executor.submit(() -> new Snapshot(dao.getAll())).get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Removes the entries of the given snapshot from the journal, after they were processed.
+	 * Should be called from a background thread.
+	 *
+	 * @param snapshot The processed snapshot
+	 */
+	public void consume(@NonNull Snapshot snapshot) {
+		executor.execute(() -> dao.deleteUpTo(snapshot.lastId));
+	}
+
+	private void observeTree(@NonNull File dir) {
+		if (!observeDir(dir)) {
+			return;
+		}
+		File[] subDirs = dir.listFiles(Directory.dirFilter);
+		if (subDirs != null) {
+			for (File subDir : subDirs) {
+				observeTree(subDir);
+			}
+		}
+	}
+
+	/**
+	 * @return false if the directory was already observed
+	 */
+	private boolean observeDir(@NonNull File dir) {
+		if (observers.containsKey(dir.getAbsolutePath())) {
+			return false;
+		}
+		DirObserver observer = new DirObserver(dir);
+		observer.startWatching();
+		observers.put(dir.getAbsolutePath(), observer);
+		return true;
+	}
+
+	/**
+	 * Stops observing the given directory tree
+	 *
+	 * @param dir The tree root, null to stop all observers
+	 */
+	private void stopObserving(@Nullable File dir) {
+		if (dir == null) {
+			topLevelDirs.clear();
+		}
+		Iterator<Map.Entry<String, DirObserver>> iterator = observers.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, DirObserver> entry = iterator.next();
+			if (dir == null || entry.getKey().equals(dir.getAbsolutePath()) ||
+					entry.getKey().startsWith(dir.getAbsolutePath() + File.separator)) {
+				entry.getValue().stopWatching();
+				iterator.remove();
+			}
+		}
+	}
+
+	private void onEvent(@NonNull File file, int event, boolean isDir) {
+		if (isDir) {
+			if (topLevelDirs.contains(file.getParent())) {
+				// Not selected, unless observed as a root of its own
+				return;
+			}
+			if ((event & (FileObserver.CREATE | FileObserver.MOVED_TO)) != 0) {
+				// Files may land in the new directory before it's observed
+				observeTree(file);
+				dao.replaceWithGap(file.getAbsolutePath());
+			} else if ((event & FileObserver.MOVED_FROM) != 0) {
+				// The moved directory images aren't journaled one by one
+				stopObserving(file);
+				dao.replaceWithGap(file.getAbsolutePath());
+			} else if ((event & FileObserver.DELETE) != 0) {
+				// The directory images were already journaled one by one before it could be deleted
+				stopObserving(file);
+			}
+		} else if ((event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0) {
+			// An observed root was deleted or moved
+			stopObserving(file);
+			dao.replaceWithGap(file.getAbsolutePath());
+		} else if (ImageFormat.hasImageExtension(file.getName())) {
+			int type = (event & (FileObserver.DELETE | FileObserver.MOVED_FROM)) != 0 ?
+					JournalEntry.EVENT_REMOVED : JournalEntry.EVENT_ADDED;
+			long id = dao.insert(new JournalEntry(file.getAbsolutePath(), type));
+			if (id - dao.getFirstId() >= MAX_ENTRIES) {
+				dao.replaceWithGap("");
+			}
+		}
+	}
+
+	/**
+	 * The journal entries up to some point
+	 */
+	public static class Snapshot {
+
+		private final List<JournalEntry> entries;
+		private final long lastId;
+
+		private Snapshot(@NonNull List<JournalEntry> entries) {
+			this.entries = entries;
+			lastId = entries.isEmpty() ? 0 : entries.get(entries.size() - 1).getId();
+		}
+
+		/**
+		 * @return false if changes may have been missed, so a full listing is needed
+		 */
+		public boolean isComplete() {
+			for (JournalEntry entry : entries) {
+				if (entry.getEvent() == JournalEntry.EVENT_GAP) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Reduces the journaled events of each path to its current state
+		 *
+		 * @param knownPaths The paths which are in the database
+		 * @return The image changes since the database was last synced
+		 */
+		@NonNull
+		public ImageChangeSet getChanges(@NonNull Collection<String> knownPaths) {
+			Set<String> known = new HashSet<>(knownPaths);
+			Map<String, Integer> lastEvents = new HashMap<>();
+			for (JournalEntry entry : entries) {
+				lastEvents.put(entry.getPath(), entry.getEvent());
+			}
+			ImageChangeSet changes = new ImageChangeSet();
+			for (Map.Entry<String, Integer> entry : lastEvents.entrySet()) {
+				String path = entry.getKey();
+				boolean exists = entry.getValue() == JournalEntry.EVENT_ADDED && new File(path).isFile();
+				if (exists) {
+					(known.contains(path) ? changes.getModified() : changes.getAdded()).add(path);
+				} else if (known.contains(path)) {
+					changes.getRemoved().add(path);
+				}
+			}
+			return changes;
+		}
+	}
+
+	private class DirObserver extends FileObserver {
+
+		private final File dir;
+
+		DirObserver(@NonNull File dir) {
+			super(dir.getAbsolutePath(), EVENTS);
+			this.dir = dir;
+		}
+
+		@Override
+		public void onEvent(int event, @Nullable String path) {
+			if ((event & EVENTS) == 0) {
+				return;
+			}
+			File file = path != null ? new File(dir, path) : dir;
+			boolean isDir = (event & IS_DIR) != 0;
+			executor.execute(() -> ChangeJournal.this.onEvent(file, event, isDir));
+		}
+	}
+}
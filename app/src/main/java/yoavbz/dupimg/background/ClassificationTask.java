@@ -4,6 +4,8 @@ import android.animation.ObjectAnimator;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
+import android.content.Context;
+import android.graphics.Bitmap;
 import android.os.AsyncTask;
 import android.preference.PreferenceManager;
 import android.util.Log;
@@ -11,6 +13,7 @@ import android.view.View;
 import android.widget.ImageView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.constraintlayout.widget.ConstraintLayout;
 
@@ -20,12 +23,15 @@ import org.apache.commons.math3.ml.clustering.DBSCANClusterer;
 import java.io.File;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import at.wirecube.additiveanimations.additive_animator.AdditiveAnimator;
@@ -33,8 +39,8 @@ import at.wirecube.additiveanimations.additive_animator.AnimationEndListener;
 import yoavbz.dupimg.Image;
 import yoavbz.dupimg.MainActivity;
 import yoavbz.dupimg.R;
-import yoavbz.dupimg.database.ImageDao;
 import yoavbz.dupimg.database.ImageDatabase;
+import yoavbz.dupimg.decode.ThumbnailStore;
 
 import static yoavbz.dupimg.MainActivity.TAG;
 
@@ -47,23 +53,58 @@ public class ClassificationTask extends AsyncTask<String, Void, List<Cluster<Ima
 	private AdditiveAnimator animation;
 	private int scanned = 0;
 	private int total = 0;
+	// Images deleted by the user while scanning, which shouldn't be stored or clustered
+	private final Set<String> deletedPaths = ConcurrentHashMap.newKeySet();
 
 	public ClassificationTask(MainActivity mainActivity) {
 		weakReference = new WeakReference<>(mainActivity);
 	}
 
-	static List<String> fetchLocalImages(@NonNull String... paths) {
-		List<String> localImages = new ArrayList<>();
-		for (String path : paths) {
-			File[] files = new File(path).listFiles((dir, name) -> name.endsWith("jpg"));
-			Log.d(TAG, "ClassificationTask: Found " + files.length + " images on " + path);
-			for (File file : files) {
-				localImages.add(file.getAbsolutePath());
+	/**
+	 * Recursively collects the images under the given directories, using {@link DirectoryWalker}
+	 *
+	 * @param context  The context, for finding the storage volumes
+	 * @param manifest Optional manifest for skipping unchanged directories
+	 * @param listener Optional listener to stream the discovered images to, called from the walker threads
+	 * @param paths    The directory paths to scan
+	 * @return The paths of all the discovered images
+	 */
+	static Set<String> fetchLocalImages(@NonNull Context context, @Nullable DirectoryManifest manifest,
+	                                    @Nullable DirectoryWalker.OnImageFoundListener listener,
+	                                    @NonNull String... paths) {
+		Set<String> localImages = ConcurrentHashMap.newKeySet();
+		new DirectoryWalker(context, manifest).walk(image -> {
+			if (listener != null) {
+				listener.onImageFound(image);
 			}
-		}
+			localImages.add(image.getAbsolutePath());
+		}, paths);
+		Log.d(TAG, "ClassificationTask: Found " + localImages.size() + " images on " + paths.length + " dirs");
 		return localImages;
 	}
 
+	/**
+	 * Sorts the given images by their modification time, newest first
+	 */
+	@NonNull
+	static List<String> sortNewestFirst(@NonNull Context context, @NonNull Collection<String> paths) {
+		Map<String, Long> lastModified = new ConcurrentHashMap<>();
+		VolumeScheduler.getInstance(context)
+		               .forEach(paths, path -> lastModified.put(path, new File(path).lastModified()));
+		List<String> sorted = new ArrayList<>(paths);
+		sorted.sort((path1, path2) -> Long.compare(lastModified.get(path2), lastModified.get(path1)));
+		return sorted;
+	}
+
+	/**
+	 * Excludes images that were deleted from the partial clusters while scanning, from the task results
+	 *
+	 * @param paths The deleted image paths
+	 */
+	public void onImagesDeleted(@NonNull Collection<String> paths) {
+		deletedPaths.addAll(paths);
+	}
+
 	@Override
 	protected void onPreExecute() {
 		MainActivity activity = weakReference.get();
@@ -107,8 +148,8 @@ public class ClassificationTask extends AsyncTask<String, Void, List<Cluster<Ima
 	protected List<Cluster<Image>> doInBackground(String... paths) {
 		MainActivity activity = weakReference.get();
 		if (activity != null) {
-			try (ImageClassifier classifier = new ImageClassifier(activity, "mobilenet_v2_1.0_224_quant.tflite",
-			                                                      "labels.txt", 224)) {
+			try (ClassifierHolder.Lease lease = ClassifierHolder.getInstance(activity).acquire()) {
+				ClassifierPool classifiers = lease.getClassifiers();
 				ImageDatabase db = ImageDatabase.getAppDatabase(activity);
 
 				// Checking scanning mode (regular/custom) and getting the dir paths
@@ -122,10 +163,32 @@ public class ClassificationTask extends AsyncTask<String, Void, List<Cluster<Ima
 					activity.isCustomScan.compareAndSet(false, true);
 				}
 
-				// Fetching local images on each dir selected
+				// Finding the images to classify: the changes since the last scan on regular scan (applying the
+				// removals and moves to the DB first), or all the local images on custom scan
 				checkCancellation();
-				List<String> localImages = fetchLocalImages(paths);
-				total = localImages.size();
+				ImageIngester ingester = new ImageIngester(activity, db.imageDao(), classifiers);
+				ImageEnumerator enumerator = null;
+				Collection<String> imagesToScan;
+				ChangeJournal.Snapshot journaled = null;
+				if (!activity.isCustomScan.get()) {
+					// The journaled changes so far are synced by the full listing, and consumed once it's committed
+					journaled = ChangeJournal.getInstance(activity).snapshot();
+					enumerator = ImageEnumerator.create(activity, db, image -> checkCancellation());
+					ImageChangeSet changes = enumerator.enumerate(db.imageDao().getAllPaths(), paths);
+					Log.d(TAG, "ClassificationTask: Found " + changes);
+					checkCancellation();
+					ingester.applyRemovals(changes);
+					imagesToScan = changes.getAdded();
+				} else {
+					imagesToScan = fetchLocalImages(activity, null, image -> checkCancellation(), paths);
+				}
+				total = imagesToScan.size();
+				// On progressive scan, processing the recent images first and showing partial clusters
+				boolean isProgressive = PreferenceManager.getDefaultSharedPreferences(activity)
+				                                         .getBoolean("progressiveScan", true);
+				if (isProgressive) {
+					imagesToScan = sortNewestFirst(activity, imagesToScan);
+				}
 
 				// Updating ProgressBars
 				checkCancellation();
@@ -143,23 +206,22 @@ public class ClassificationTask extends AsyncTask<String, Void, List<Cluster<Ima
 				// Initiating clusterer and list of images to scan
 				DBSCANClusterer<Image> clusterer = new DBSCANClusterer<>(1.65, 2);
 				List<Image> imagesToClusters;
+				ProgressiveClusterer progressive = !isProgressive ? null : new ProgressiveClusterer(
+						clusterer, clusters -> showPartialClusters(activity, clusters));
 
 				checkCancellation();
 				// Processing images according to scanning mode
 				if (!activity.isCustomScan.get()) {
 					// Regular Scan
 
-					// Removing (from DB) images that were deleted from local directory
-					db.imageDao().deleteNotInList(localImages);
-
-					// Inserting new images to the DB
-					List<Image> newImages = getNewImages(activity, db.imageDao(), classifier, localImages);
-					if (!newImages.isEmpty()) {
-						Log.d(TAG, "ClassificationTask: Inserting " + newImages.size() + " images to DB");
-						db.imageDao().insert(newImages);
-					} else {
-						Log.d(TAG, "ClassificationTask: No new images..");
+					// Classifying and inserting new images to the DB, then removing those deleted meanwhile
+					List<Image> newImages = getNewImages(activity, ingester, imagesToScan, progressive);
+					Log.d(TAG, "ClassificationTask: Inserted " + newImages.size() + " images to DB");
+					for (String path : deletedPaths) {
+						db.imageDao().delete(path);
 					}
+					enumerator.commit();
+					ChangeJournal.getInstance(activity).consume(journaled);
 
 					// Finishing scan, animating ProgressBars
 					checkCancellation();
@@ -175,16 +237,19 @@ public class ClassificationTask extends AsyncTask<String, Void, List<Cluster<Ima
 				} else {
 					// Custom scan
 
-					// Iterating local images
-					imagesToClusters = new ArrayList<>();
-					for (String path : localImages) {
-						checkCancellation();
-						Image image = new Image(path, activity, classifier);
-						imagesToClusters.add(image);
-						animatePreview(activity, image);
+					// Classifying local images
+					imagesToClusters = ingester.ingest(imagesToScan, (path, image) -> {
+						if (image != null) {
+							animatePreview(activity, image);
+							if (progressive != null) {
+								progressive.add(image);
+							}
+						}
 						publishProgress();
-					}
+						checkCancellation();
+					});
 				}
+				imagesToClusters.removeIf(image -> deletedPaths.contains(image.getPath()));
 				checkCancellation();
 
 				// Clustering!
@@ -217,8 +282,12 @@ public class ClassificationTask extends AsyncTask<String, Void, List<Cluster<Ima
 			isPreviewing.compareAndSet(false, true);
 			ImageView preview = activity.findViewById(R.id.preview);
 			ConstraintLayout layout = (ConstraintLayout) preview.getParent();
+			// Decoding on the calling (background) thread, just large enough for filling the cropped preview
+			int size = Math.max(preview.getWidth(), preview.getHeight());
+			// The preview may not be laid out yet
+			Bitmap bitmap = image.getOrientedBitmap(size > 0 ? size : ThumbnailStore.THUMBNAIL_SIZE);
 			activity.runOnUiThread(() -> {
-				preview.setImageBitmap(image.getOrientedBitmap());
+				preview.setImageBitmap(bitmap);
 				preview.setVisibility(View.VISIBLE);
 				float originalX = (layout.getWidth() - preview.getWidth()) * 0.75f;
 				animation = AdditiveAnimator.animate(preview)
@@ -245,28 +314,38 @@ public class ClassificationTask extends AsyncTask<String, Void, List<Cluster<Ima
 		}
 	}
 
-	private List<Image> getNewImages(AppCompatActivity activity, @NonNull ImageDao dao, ImageClassifier classifier,
-	                                 @NonNull List<String> localImages) {
-		ArrayList<Image> newImages = new ArrayList<>();
-		// Filtering images that are already in the database
+	/**
+	 * Shows the given partial clusters while scanning
+	 */
+	private void showPartialClusters(@NonNull MainActivity activity, @NonNull List<Cluster<Image>> clusters) {
+		for (Cluster<Image> cluster : clusters) {
+			cluster.getPoints().removeIf(image -> deletedPaths.contains(image.getPath()));
+		}
+		clusters.removeIf(cluster -> cluster.getPoints().size() < 2);
+		activity.runOnUiThread(() -> {
+			if (!isCancelled()) {
+				activity.galleryView.setImageClusters(clusters);
+				activity.galleryView.setVisibility(View.VISIBLE);
+			}
+		});
+	}
+
+	private List<Image> getNewImages(AppCompatActivity activity, ImageIngester ingester,
+	                                 @NonNull Collection<String> newImages,
+	                                 @Nullable ProgressiveClusterer progressive) {
 		checkCancellation();
-		localImages.removeAll(dao.getAllPaths());
 		// Deciding whether to show preview image or not
-		boolean shouldAnimatePreview = localImages.size() > 5;
-		for (String path : localImages) {
-			checkCancellation();
-			try {
-				Image image = new Image(path, activity, classifier);
-				newImages.add(image);
-				if (shouldAnimatePreview) {
-					animatePreview(activity, image);
-				}
-			} catch (Exception e) {
-				Log.e(TAG, "getNewImages: ", e);
+		boolean shouldAnimatePreview = newImages.size() > 5;
+		return ingester.ingestAndInsert(newImages, (path, image) -> {
+			if (shouldAnimatePreview && image != null) {
+				animatePreview(activity, image);
+			}
+			if (progressive != null && image != null) {
+				progressive.add(image);
 			}
 			publishProgress();
-		}
-		return newImages;
+			checkCancellation();
+		});
 	}
 
 	@Override
@@ -324,6 +403,8 @@ public class ClassificationTask extends AsyncTask<String, Void, List<Cluster<Ima
 				animation.cancelAllAnimations();
 			}
 			activity.notificationManager.cancel(NOTIFICATION_ID);
+			// Hiding partial clusters
+			activity.galleryView.setVisibility(View.GONE);
 			activity.textView.setText(activity.getString(R.string.got_an_error));
 			activity.textView.setVisibility(View.VISIBLE);
 			activity.progressBar.setVisibility(View.GONE);
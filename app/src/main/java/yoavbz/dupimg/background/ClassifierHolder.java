@@ -0,0 +1,144 @@
+package yoavbz.dupimg.background;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static yoavbz.dupimg.MainActivity.TAG;
+
+/**
+ * Keeps a process-wide {@link ClassifierPool} warm, shared by the foreground scans and the background job, so
+ * back-to-back scans skip mapping the model, parsing the labels and creating the interpreters.
+ * The pool is reference counted by {@link Lease}s, and closed once it's been unused for the idle timeout
+ * ("classifierIdleTimeout" preference, in seconds), or when the system is low on memory.
+ */
+public class ClassifierHolder {
+
+	private static final int DEFAULT_IDLE_TIMEOUT = 60;
+	private static ClassifierHolder INSTANCE;
+
+	private final Context context;
+	private final ScheduledExecutorService closer = Executors.newSingleThreadScheduledExecutor();
+	private ClassifierPool classifiers;
+	private int references = 0;
+	private ScheduledFuture<?> pendingClose;
+
+	private ClassifierHolder(@NonNull Context context) {
+		this.context = context;
+	}
+
+	public static synchronized ClassifierHolder getInstance(@NonNull Context context) {
+		if (INSTANCE == null) {
+			INSTANCE = new ClassifierHolder(context.getApplicationContext());
+		}
+		return INSTANCE;
+	}
+
+	/**
+	 * Checks out the warm pool, creating it if needed. Should be called from a background thread
+	 *
+	 * @return A lease of the pool, which must be closed once done classifying
+	 */
+	@NonNull
+	public synchronized Lease acquire() throws IOException {
+		if (pendingClose != null) {
+			pendingClose.cancel(false);
+			pendingClose = null;
+		}
+		if (classifiers != null && references == 0 &&
+				classifiers.getNumThreads() != ClassifierPool.getNumThreads(context)) {
+			// The interpreter threads preference was changed while the pool was idle
+			closeClassifiers();
+		}
+		if (classifiers == null) {
+			classifiers = new ClassifierPool(context);
+		} else {
+			Log.d(TAG, "ClassifierHolder: Reusing the warm classifiers");
+		}
+		references++;
+		return new Lease(classifiers);
+	}
+
+	private synchronized void release() {
+		if (--references > 0) {
+			return;
+		}
+		int idleTimeout = PreferenceManager.getDefaultSharedPreferences(context)
+		                                   .getInt("classifierIdleTimeout", DEFAULT_IDLE_TIMEOUT);
+		if (idleTimeout <= 0) {
+			closeClassifiers();
+		} else {
+			pendingClose = closer.schedule(this::closeIfIdle, idleTimeout, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Closes the pool if unused when the system is low on memory, or once the process is in the background
+	 * LRU list
+	 *
+	 * @param level The level passed to {@link ComponentCallbacks2#onTrimMemory(int)}
+	 */
+	public synchronized void onTrimMemory(int level) {
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW &&
+				level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+			Log.d(TAG, "ClassifierHolder: Trimming memory, level " + level);
+			closeIfIdle();
+		}
+	}
+
+	private synchronized void closeIfIdle() {
+		if (references == 0) {
+			closeClassifiers();
+		}
+	}
+
+	private synchronized void closeClassifiers() {
+		if (pendingClose != null) {
+			pendingClose.cancel(false);
+			pendingClose = null;
+		}
+		if (classifiers != null) {
+			classifiers.close();
+			classifiers = null;
+			Log.d(TAG, "ClassifierHolder: Closed the idle classifiers");
+		}
+	}
+
+	/**
+	 * A reference to the warm pool, releasing it when closed
+	 */
+	public class Lease implements Closeable {
+
+		private final ClassifierPool classifiers;
+		private boolean closed = false;
+
+		private Lease(@NonNull ClassifierPool classifiers) {
+			this.classifiers = classifiers;
+		}
+
+		@NonNull
+		public ClassifierPool getClassifiers() {
+			return classifiers;
+		}
+
+		@Override
+		public void close() {
+			synchronized (ClassifierHolder.this) {
+				if (!closed) {
+					closed = true;
+					release();
+				}
+			}
+		}
+	}
+}
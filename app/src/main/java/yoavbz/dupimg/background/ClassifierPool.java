@@ -0,0 +1,158 @@
+package yoavbz.dupimg.background;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static yoavbz.dupimg.MainActivity.TAG;
+
+/**
+ * A pool of {@link ImageClassifier}s (each wrapping its own interpreter) sharing a single memory-mapped model,
+ * for classifying on several threads at once. Classifiers are checked out by {@link #acquire()} and must be
+ * returned by {@link #release(ImageClassifier)}.
+ * <p>
+ * The pool size is picked from the available cores (divided by the threads per interpreter, configured by the
+ * "interpreterThreads" preference) and the available memory.
+ * Scans should use the warm pool of {@link ClassifierHolder} rather than creating their own.
+ */
+public class ClassifierPool implements Closeable {
+
+	public static final String MODEL_PATH = "mobilenet_v2_1.0_224_quant.tflite";
+	public static final String LABELS_PATH = "labels.txt";
+	public static final int INPUT_SIZE = 224;
+	// A rough estimate of an interpreter's memory, including its tensors and the classifier buffers
+	private static final long INTERPRETER_BYTES = 16 * 1024 * 1024;
+	// The fraction of the available memory the interpreters may take
+	private static final int MEMORY_FRACTION = 8;
+
+	private final List<ImageClassifier> classifiers = new ArrayList<>();
+	private final BlockingQueue<ImageClassifier> available;
+	private final int inputSize;
+	private final int numThreads;
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a pool of the default model, sized automatically
+	 */
+	public ClassifierPool(@NonNull Context context) throws IOException {
+		this(context, MODEL_PATH, LABELS_PATH, INPUT_SIZE);
+	}
+
+	public ClassifierPool(@NonNull Context context, String modelPath, String labelsPath, int inputSize)
+			throws IOException {
+		numThreads = getNumThreads(context);
+		int size = computeSize(context, numThreads);
+		this.inputSize = inputSize;
+		AssetManager assetManager = context.getAssets();
+		MappedByteBuffer model = ImageClassifier.loadModelFile(assetManager, modelPath);
+		List<String> labels = ImageClassifier.loadLabels(assetManager, labelsPath);
+		available = new ArrayBlockingQueue<>(size);
+		for (int i = 0; i < size; i++) {
+			ImageClassifier classifier = new ImageClassifier(model, labels, inputSize, numThreads);
+			classifiers.add(classifier);
+			available.add(classifier);
+		}
+		Log.d(TAG, "ClassifierPool: Created " + size + " interpreters, running on " + numThreads + " threads each");
+	}
+
+	/**
+	 * @return The number of threads per interpreter, by the "interpreterThreads" preference
+	 */
+	static int getNumThreads(@NonNull Context context) {
+		return Math.max(1, PreferenceManager.getDefaultSharedPreferences(context).getInt("interpreterThreads", 1));
+	}
+
+	/**
+	 * @return The number of interpreters fitting the available cores and memory, at least 1
+	 */
+	private static int computeSize(@NonNull Context context, int numThreads) {
+		int size = Runtime.getRuntime().availableProcessors() / numThreads;
+		ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+		if (activityManager != null) {
+			if (activityManager.isLowRamDevice()) {
+				return 1;
+			}
+			ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+			activityManager.getMemoryInfo(memoryInfo);
+			size = (int) Math.min(size, memoryInfo.availMem / MEMORY_FRACTION / INTERPRETER_BYTES);
+		}
+		return Math.max(1, size);
+	}
+
+	/**
+	 * @return The number of classifiers in the pool
+	 */
+	public int size() {
+		return classifiers.size();
+	}
+
+	/**
+	 * @return The number of threads each interpreter runs on
+	 */
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * @return The model input size of the classifiers, in pixels per dimension
+	 */
+	public int getInputSize() {
+		return inputSize;
+	}
+
+	/**
+	 * Checks out a classifier, waiting for one to be returned if all are in use
+	 *
+	 * @throws InterruptedException  If interrupted while waiting
+	 * @throws IllegalStateException If the pool is closed
+	 */
+	@NonNull
+	public ImageClassifier acquire() throws InterruptedException {
+		if (closed) {
+			throw new IllegalStateException("The classifier pool is closed");
+		}
+		return available.take();
+	}
+
+	/**
+	 * Returns a classifier checked out by {@link #acquire()}
+	 */
+	public void release(@NonNull ImageClassifier classifier) {
+		available.add(classifier);
+	}
+
+	/**
+	 * Closes all the classifiers, waiting for the checked out ones to be returned first, so no interpreter is
+	 * closed while running
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		boolean interrupted = false;
+		int returned = 0;
+		while (returned < classifiers.size()) {
+			try {
+				available.take().close();
+				returned++;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		classifiers.clear();
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package yoavbz.dupimg.background;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static yoavbz.dupimg.MainActivity.TAG;
+
+/**
+ * Cheap content fingerprints for detecting byte-identical images without decoding them.
+ * A fingerprint consists of the file size and CRC32 checksums of its head and tail blocks,
+ * and is confirmed with a full SHA-1 hash whenever two files share the same fingerprint.
+ */
+public class ContentFingerprint {
+
+	private static final int BLOCK_SIZE = 32 * 1024;
+
+	/**
+	 * @param file The file to fingerprint
+	 * @return The file fingerprint, formatted as "size:headCrc:tailCrc"
+	 * @throws IOException If the file couldn't be read
+	 */
+	@NonNull
+	public static String compute(@NonNull File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			long size = raf.length();
+			byte[] block = new byte[(int) Math.min(BLOCK_SIZE, size)];
+			raf.readFully(block);
+			CRC32 head = new CRC32();
+			head.update(block);
+			CRC32 tail = new CRC32();
+			if (size > BLOCK_SIZE) {
+				raf.seek(Math.max(BLOCK_SIZE, size - BLOCK_SIZE));
+				int length = (int) (size - raf.getFilePointer());
+				raf.readFully(block, 0, length);
+				tail.update(block, 0, length);
+			}
+			return String.format(Locale.ENGLISH, "%d:%08x:%08x", size, head.getValue(), tail.getValue());
+		}
+	}
+
+	/**
+	 * @param file The file to hash
+	 * @return The SHA-1 hash of the whole file, as a hex string
+	 * @throws IOException If the file couldn't be read
+	 */
+	@NonNull
+	public static String fullHash(@NonNull File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		byte[] buffer = new byte[64 * 1024];
+		try (InputStream in = new FileInputStream(file)) {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format(Locale.ENGLISH, "%02x", b));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * @return The fingerprint of the given file, or null if it couldn't be read
+	 */
+	@Nullable
+	public static String computeOrNull(@NonNull String path) {
+		try {
+			return compute(new File(path));
+		} catch (IOException e) {
+			Log.e(TAG, "ContentFingerprint: Couldn't fingerprint " + path, e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if both files have the same content, according to their full hash
+	 */
+	public static boolean isIdentical(@NonNull String path1, @NonNull String path2) {
+		try {
+			return fullHash(new File(path1)).equals(fullHash(new File(path2)));
+		} catch (IOException e) {
+			Log.e(TAG, "ContentFingerprint: Couldn't compare " + path1 + " to " + path2, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Groups the given paths into groups of byte-identical files.
+	 * Paths sharing a fingerprint are confirmed by their full hash, so a fingerprint collision never merges
+	 * different files. Unreadable files get a singleton group.
+	 *
+	 * @param fingerprints The paths to group, mapped to their fingerprints (null values for unreadable files)
+	 * @return The groups of identical paths, in the iteration order of the given map
+	 */
+	@NonNull
+	public static Collection<List<String>> groupIdentical(@NonNull Map<String, String> fingerprints) {
+		Map<String, List<String>> candidates = new LinkedHashMap<>();
+		for (Map.Entry<String, String> entry : fingerprints.entrySet()) {
+			// Unreadable files are keyed by their path, so they're never grouped
+			String key = entry.getValue() != null ? entry.getValue() : entry.getKey();
+			candidates.computeIfAbsent(key, k -> new ArrayList<>()).add(entry.getKey());
+		}
+		List<List<String>> groups = new ArrayList<>();
+		for (List<String> candidate : candidates.values()) {
+			if (candidate.size() == 1) {
+				groups.add(candidate);
+				continue;
+			}
+			// Confirming the fingerprint collision with full hashes
+			Map<String, List<String>> confirmed = new HashMap<>();
+			for (String path : candidate) {
+				String hash;
+				try {
+					hash = fullHash(new File(path));
+				} catch (IOException e) {
+					hash = path;
+				}
+				confirmed.computeIfAbsent(hash, k -> new ArrayList<>()).add(path);
+			}
+			groups.addAll(confirmed.values());
+		}
+		return groups;
+	}
+}
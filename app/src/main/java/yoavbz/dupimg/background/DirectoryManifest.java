@@ -0,0 +1,147 @@
+package yoavbz.dupimg.background;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import yoavbz.dupimg.database.DirectoryDao;
+import yoavbz.dupimg.database.DirectoryEntry;
+import yoavbz.dupimg.database.ImageDatabase;
+import yoavbz.dupimg.treeview.Directory;
+
+import static yoavbz.dupimg.MainActivity.TAG;
+
+/**
+ * A persisted per-directory snapshot (path, lastModified, child count) of the last completed scan.
+ * Allows {@link DirectoryWalker} to skip listing directories whose modification time hasn't changed,
+ * reporting their already known images (from {@link ImageDatabase}) instead.
+ * <p>
+ * The visited directories are kept in memory until {@link #commit()} is called, which should happen only after
+ * the discovered images were stored, so an interrupted scan never marks unprocessed directories as up to date.
+ */
+public class DirectoryManifest {
+
+	private final DirectoryDao dao;
+	private final Map<String, DirectoryEntry> entries = new HashMap<>();
+	private final Map<String, List<String>> subDirs = new HashMap<>();
+	private final Map<String, List<String>> knownImages = new HashMap<>();
+	private final Set<String> knownPaths = new HashSet<>();
+	private final Map<String, DirectoryEntry> visited = new ConcurrentHashMap<>();
+	private final Set<String> walkedRoots = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Loads the stored manifest and the known images from the database.
+	 * Should be called from a background thread.
+	 */
+	public DirectoryManifest(@NonNull ImageDatabase db) {
+		dao = db.directoryDao();
+		for (DirectoryEntry entry : dao.getAll()) {
+			entries.put(entry.getPath(), entry);
+			if (entry.getParent() != null) {
+				subDirs.computeIfAbsent(entry.getParent(), parent -> new ArrayList<>()).add(entry.getPath());
+			}
+		}
+		knownPaths.addAll(db.imageDao().getAllPaths());
+		for (String path : knownPaths) {
+			knownImages.computeIfAbsent(new File(path).getParent(), dir -> new ArrayList<>()).add(path);
+		}
+	}
+
+	/**
+	 * A directory is unchanged if its modification time matches the stored one, and all of its images are still
+	 * in the database (e.g. none of them failed classification on the last scan).
+	 *
+	 * @param dir          The directory
+	 * @param lastModified The current modification time of the directory
+	 * @return true if the directory doesn't need to be listed
+	 */
+	boolean isUnchanged(@NonNull File dir, long lastModified) {
+		DirectoryEntry entry = entries.get(dir.getAbsolutePath());
+		return entry != null && entry.getLastModified() == lastModified &&
+				entry.getChildCount() == getKnownImages(dir).size();
+	}
+
+	/**
+	 * @return The stored sub-directories of the given directory
+	 */
+	@NonNull
+	List<String> getSubDirectories(@NonNull File dir) {
+		return subDirs.getOrDefault(dir.getAbsolutePath(), Collections.emptyList());
+	}
+
+	/**
+	 * @return The images of the given directory which are already in the database
+	 */
+	@NonNull
+	List<String> getKnownImages(@NonNull File dir) {
+		return knownImages.getOrDefault(dir.getAbsolutePath(), Collections.emptyList());
+	}
+
+	/**
+	 * @return true if the given file is already in the database
+	 */
+	boolean isKnown(@NonNull File file) {
+		return knownPaths.contains(file.getAbsolutePath());
+	}
+
+	/**
+	 * Records the given directory as visited, called concurrently by the walker threads
+	 *
+	 * @param dir          The directory
+	 * @param lastModified The modification time of the directory, taken before listing it
+	 * @param childCount   The number of images found directly under the directory
+	 */
+	void onDirectoryVisited(@NonNull File dir, long lastModified, int childCount) {
+		String path = dir.getAbsolutePath();
+		visited.put(path, new DirectoryEntry(path, dir.getParent(), lastModified, childCount));
+	}
+
+	/**
+	 * Records a root the walk started from, so only the stored directories under it may be found stale
+	 *
+	 * @param root A selected directory path, see {@link Directory#isTopLevelOnly(String)}
+	 */
+	void onRootWalked(@NonNull String root) {
+		walkedRoots.add(root);
+	}
+
+	/**
+	 * Persists the directories visited by the walk, and removes the stored directories under the walked roots
+	 * which weren't visited (deleted, or no longer under a selected directory).
+	 * The directories out of the walked roots are kept, for the scans of other selections.
+	 * Should be called from a background thread.
+	 */
+	public void commit() {
+		List<String> stale = new ArrayList<>();
+		for (String path : entries.keySet()) {
+			if (!visited.containsKey(path) && isUnderWalkedRoot(path)) {
+				stale.add(path);
+			}
+		}
+		Collection<DirectoryEntry> dirs = visited.values();
+		dao.update(dirs, stale);
+		Log.d(TAG, "DirectoryManifest: Stored " + dirs.size() + " directories, removed " + stale.size());
+	}
+
+	private boolean isUnderWalkedRoot(@NonNull String path) {
+		for (String root : walkedRoots) {
+			String rootPath = new File(Directory.getDirPath(root)).getAbsolutePath();
+			if (path.equals(rootPath) ||
+					!Directory.isTopLevelOnly(root) && path.startsWith(rootPath + File.separator)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,220 @@
+package yoavbz.dupimg.background;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import yoavbz.dupimg.decode.ImageFormat;
+import yoavbz.dupimg.treeview.Directory;
+
+import static yoavbz.dupimg.MainActivity.TAG;
+
+/**
+ * Recursively walks the given root directories in parallel, using the work-stealing {@link ForkJoinPool}
+ * of each root's storage volume (see {@link VolumeScheduler}).
+ * Every discovered image is streamed to an {@link OnImageFoundListener} as soon as its directory is listed.
+ * <p>
+ * When a {@link DirectoryManifest} is given, directories that haven't changed since the last scan aren't listed,
+ * and their known images are reported instead.
+ */
+public class DirectoryWalker {
+
+	private final VolumeScheduler scheduler;
+	@Nullable
+	private final DirectoryManifest manifest;
+	private final Set<String> visited = ConcurrentHashMap.newKeySet();
+
+	public DirectoryWalker(@NonNull Context context) {
+		this(context, null);
+	}
+
+	/**
+	 * @param manifest The manifest to skip unchanged directories by, null to list every directory
+	 */
+	public DirectoryWalker(@NonNull Context context, @Nullable DirectoryManifest manifest) {
+		scheduler = VolumeScheduler.getInstance(context);
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Walks the given roots and their sub-directories, skipping hidden and unreadable directories
+	 * (the same way {@link Directory#dirFilter} does).
+	 * Roots of partially selected directories (see {@link Directory#isTopLevelOnly(String)}) are walked without
+	 * their sub-directories. Roots that are nested inside other given roots are walked only once.
+	 * <p>
+	 * The listener is called concurrently from the pool threads, and may abort the walk by throwing
+	 * an unchecked exception (e.g. {@link java.util.concurrent.CancellationException}), which is rethrown here.
+	 *
+	 * @param listener The listener to stream the discovered images to
+	 * @param roots    The root directory paths
+	 */
+	public void walk(@NonNull OnImageFoundListener listener, @NonNull String... roots) {
+		// Walking each volume on its own pool, so sub-directories are forked on the same volume pool
+		Map<ForkJoinPool, List<WalkTask>> tasks = new HashMap<>();
+		for (String root : pruneNestedRoots(roots)) {
+			if (manifest != null) {
+				manifest.onRootWalked(root);
+			}
+			File dir = new File(Directory.getDirPath(root));
+			tasks.computeIfAbsent(scheduler.getPool(dir.getAbsolutePath()), pool -> new ArrayList<>())
+			     .add(new WalkTask(dir, !Directory.isTopLevelOnly(root), listener));
+		}
+		List<ForkJoinTask<Void>> walks = new ArrayList<>();
+		for (Map.Entry<ForkJoinPool, List<WalkTask>> entry : tasks.entrySet()) {
+			walks.add(entry.getKey().submit(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					invokeAll(entry.getValue());
+				}
+			}));
+		}
+		try {
+			for (ForkJoinTask<Void> walk : walks) {
+				walk.join();
+			}
+		} catch (RuntimeException e) {
+			for (ForkJoinTask<Void> walk : walks) {
+				walk.cancel(false);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * @return The given roots, without the ones contained in (or equal to) another root
+	 */
+	@NonNull
+	private static List<String> pruneNestedRoots(@NonNull String... roots) {
+		String[] sorted = Arrays.stream(roots)
+		                        .map(root -> Directory.isTopLevelOnly(root) ? root :
+				                        new File(root).getAbsolutePath())
+		                        .distinct()
+		                        .sorted()
+		                        .toArray(String[]::new);
+		List<String> pruned = new ArrayList<>();
+		String last = null;
+		for (String root : sorted) {
+			// Sorting guarantees a parent is always followed by its descendants
+			if (last == null || !root.startsWith(last + File.separator)) {
+				pruned.add(root);
+				// Only recursive roots contain other roots
+				if (!Directory.isTopLevelOnly(root)) {
+					last = root;
+				}
+			}
+		}
+		return pruned;
+	}
+
+	/**
+	 * Filters images by extension, then sniffs the header of files that aren't known yet,
+	 * so misnamed, truncated and unsupported files are rejected before reaching the decoder.
+	 *
+	 * @return true if the given file is a supported image
+	 */
+	private boolean isImage(@NonNull File file) {
+		if (!ImageFormat.hasImageExtension(file.getName())) {
+			return false;
+		}
+		if (manifest != null && manifest.isKnown(file)) {
+			return true;
+		}
+		return ImageFormat.sniff(file).isSupported();
+	}
+
+	/**
+	 * Marks the given directory as visited, to avoid walking the same directory twice (e.g. symlink loops)
+	 *
+	 * @return true if the directory wasn't visited before
+	 */
+	private boolean markVisited(@NonNull File dir) {
+		try {
+			return visited.add(dir.getCanonicalPath());
+		} catch (IOException e) {
+			return visited.add(dir.getAbsolutePath());
+		}
+	}
+
+	public interface OnImageFoundListener {
+		/**
+		 * Called for every discovered image, possibly from multiple threads at once
+		 *
+		 * @param image The image file
+		 */
+		void onImageFound(@NonNull File image);
+	}
+
+	private class WalkTask extends RecursiveAction {
+
+		private final File dir;
+		private final boolean recursive;
+		private final OnImageFoundListener listener;
+
+		WalkTask(@NonNull File dir, boolean recursive, @NonNull OnImageFoundListener listener) {
+			this.dir = dir;
+			this.recursive = recursive;
+			this.listener = listener;
+		}
+
+		@Override
+		protected void compute() {
+			if (!markVisited(dir)) {
+				return;
+			}
+			List<WalkTask> subTasks = new ArrayList<>();
+			// Taking the modification time before listing, so changes made while listing are caught next time
+			long lastModified = manifest != null ? dir.lastModified() : 0;
+			if (manifest != null && manifest.isUnchanged(dir, lastModified)) {
+				// Reporting the known images and walking the known sub-directories, without listing
+				List<String> images = manifest.getKnownImages(dir);
+				for (String image : images) {
+					listener.onImageFound(new File(image));
+				}
+				for (String subDir : manifest.getSubDirectories(dir)) {
+					// Re-checking the stored sub-directories, which may have been hidden or made unreadable since
+					File subDirFile = new File(subDir);
+					if (Directory.dirFilter.accept(subDirFile)) {
+						subTasks.add(new WalkTask(subDirFile, true, listener));
+					}
+				}
+				manifest.onDirectoryVisited(dir, lastModified, images.size());
+			} else {
+				File[] files = dir.listFiles();
+				if (files == null) {
+					Log.w(TAG, "DirectoryWalker: Couldn't list " + dir);
+					return;
+				}
+				int images = 0;
+				for (File file : files) {
+					if (Directory.dirFilter.accept(file)) {
+						subTasks.add(new WalkTask(file, true, listener));
+					} else if (isImage(file)) {
+						listener.onImageFound(file);
+						images++;
+					}
+				}
+				if (manifest != null) {
+					manifest.onDirectoryVisited(dir, lastModified, images);
+				}
+			}
+			if (recursive) {
+				invokeAll(subTasks);
+			}
+		}
+	}
+}
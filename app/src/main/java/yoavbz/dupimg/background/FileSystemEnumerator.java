@@ -0,0 +1,55 @@
+package yoavbz.dupimg.background;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import yoavbz.dupimg.database.ImageDatabase;
+
+/**
+ * Enumerates images by walking the directories with {@link DirectoryWalker},
+ * skipping the ones that are unchanged according to the {@link DirectoryManifest}
+ */
+public class FileSystemEnumerator implements ImageEnumerator {
+
+	private final Context context;
+	private final DirectoryManifest manifest;
+	@Nullable
+	private final DirectoryWalker.OnImageFoundListener listener;
+
+	FileSystemEnumerator(@NonNull Context context, @NonNull ImageDatabase db,
+	                     @Nullable DirectoryWalker.OnImageFoundListener listener) {
+		this.context = context;
+		manifest = new DirectoryManifest(db);
+		this.listener = listener;
+	}
+
+	@NonNull
+	@Override
+	public ImageChangeSet enumerate(@NonNull Collection<String> knownPaths, @NonNull String... dirs) {
+		Set<String> localImages = ClassificationTask.fetchLocalImages(context, manifest, listener, dirs);
+		Set<String> known = new HashSet<>(knownPaths);
+		ImageChangeSet changes = new ImageChangeSet();
+		for (String path : localImages) {
+			if (!known.contains(path)) {
+				changes.getAdded().add(path);
+			}
+		}
+		for (String path : known) {
+			if (!localImages.contains(path)) {
+				changes.getRemoved().add(path);
+			}
+		}
+		return changes;
+	}
+
+	@Override
+	public void commit() {
+		manifest.commit();
+	}
+}
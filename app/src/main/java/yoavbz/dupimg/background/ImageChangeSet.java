@@ -0,0 +1,50 @@
+package yoavbz.dupimg.background;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The image changes found since the last scan, relative to the images in the database
+ */
+public class ImageChangeSet {
+
+	private final Set<String> added = new HashSet<>();
+	private final Set<String> removed = new HashSet<>();
+	private final Set<String> modified = new HashSet<>();
+
+	/**
+	 * @return Paths that aren't in the database yet
+	 */
+	@NonNull
+	public Set<String> getAdded() {
+		return added;
+	}
+
+	/**
+	 * @return Database paths that no longer exist
+	 */
+	@NonNull
+	public Set<String> getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * @return Database paths whose content may have changed
+	 */
+	@NonNull
+	public Set<String> getModified() {
+		return modified;
+	}
+
+	public boolean isEmpty() {
+		return added.isEmpty() && removed.isEmpty() && modified.isEmpty();
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		return added.size() + " added, " + removed.size() + " removed, " + modified.size() + " modified";
+	}
+}
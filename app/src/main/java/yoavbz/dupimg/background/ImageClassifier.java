@@ -4,6 +4,8 @@ import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
+import android.util.Log;
+
 import androidx.annotation.NonNull;
 import org.tensorflow.lite.Interpreter;
 
@@ -15,29 +17,206 @@ import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 
+import static yoavbz.dupimg.MainActivity.TAG;
+
+/**
+ * Generates feature vectors by a TensorFlow Lite model.
+ * The input and output buffers are owned by the classifier and reused across images, so classifying allocates
+ * nothing (unless a new feature vector is requested), which also makes it unsafe for concurrent use
+ * (see {@link ClassifierPool} for classifying on several threads).
+ */
 public class ImageClassifier implements Closeable {
 
+	private static final int PIXEL_SIZE = 3;
+
 	private Interpreter interpreter;
 	private int inputSize;
 	private List<String> labels;
+	// The scratch arrays of fillInput, allocated once per thread
+	private static final ThreadLocal<int[]> PIXELS = new ThreadLocal<>();
+	private static final ThreadLocal<byte[]> RGB = new ThreadLocal<>();
+
+	private final ByteBuffer inputBuffer;
+	private final byte[][] output;
+	// The current batch size of the input tensor
+	private int batchSize = 1;
+	// Whether the model runs on a resized batch, null until probed by the first batch
+	private Boolean batchSupported;
+	private ByteBuffer batchBuffer;
+	private byte[][] batchOutput;
 
 	ImageClassifier(@NonNull Context context, String modelPath, String labelsPath, int inputSize) throws IOException {
-		AssetManager assetManager = context.getAssets();
-		interpreter = new Interpreter(loadModelFile(assetManager, modelPath));
-		labels = loadLabels(assetManager, labelsPath);
+		this(loadModelFile(context.getAssets(), modelPath), loadLabels(context.getAssets(), labelsPath), inputSize,
+		     1);
+	}
+
+	/**
+	 * @param model      The loaded model, may be shared by several classifiers
+	 * @param labels     The model labels
+	 * @param numThreads The number of threads the interpreter runs on
+	 */
+	ImageClassifier(@NonNull MappedByteBuffer model, @NonNull List<String> labels, int inputSize, int numThreads) {
+		interpreter = new Interpreter(model);
+		interpreter.setNumThreads(numThreads);
+		this.labels = labels;
 		this.inputSize = inputSize;
+		inputBuffer = createInputBuffer(inputSize);
+		output = new byte[1][labels.size()];
 	}
 
+	/**
+	 * @param bitmap The image, scaled to the model input size
+	 * @return A new feature vector
+	 */
 	public double[] recognizeImage(Bitmap bitmap) {
-		ByteBuffer byteBuffer = convertBitmapToByteBuffer(bitmap);
-		byte[][] result = new byte[1][labels.size()];
-		interpreter.run(byteBuffer, result);
-		double[] vector = new double[result[0].length];
-		for (int i = 0; i < labels.size(); ++i) {
+		return recognizeImage(bitmap, new double[getFeatureCount()]);
+	}
+
+	/**
+	 * Same as {@link #recognizeImage(Bitmap)}, writing the feature vector into the given array
+	 *
+	 * @param features An array of {@link #getFeatureCount()} elements
+	 * @return The given array
+	 */
+	public double[] recognizeImage(@NonNull Bitmap bitmap, @NonNull double[] features) {
+		fillInput(bitmap, inputBuffer);
+		return recognizePixels(inputBuffer, features);
+	}
+
+	/**
+	 * @return A new direct buffer in the model input layout (inputSize x inputSize pixels, as RGB bytes), for
+	 * holding a preprocessed image of a batch, see {@link #recognizeBatch(List)}
+	 */
+	@NonNull
+	public ByteBuffer createInputBuffer() {
+		return createInputBuffer(inputSize);
+	}
+
+	/**
+	 * Same as {@link #createInputBuffer()}, for a model of the given input size
+	 */
+	@NonNull
+	public static ByteBuffer createInputBuffer(int inputSize) {
+		ByteBuffer byteBuffer = ByteBuffer.allocateDirect(inputSize * inputSize * PIXEL_SIZE);
+		byteBuffer.order(ByteOrder.nativeOrder());
+		return byteBuffer;
+	}
+
+	/**
+	 * Classifies a batch of preprocessed images in a single interpreter run, resizing the input tensor to the
+	 * batch size if needed.
+	 * Models with a fixed batch size (e.g. reshaping their output to [1, labels]) fail the first batch run, and
+	 * then classify the batch images one by one instead.
+	 *
+	 * @param inputs The input pixels of each image, as filled into buffers from {@link #createInputBuffer()}
+	 * @return A new feature vector for each of the inputs, in the same order
+	 */
+	@NonNull
+	public double[][] recognizeBatch(@NonNull List<ByteBuffer> inputs) {
+		int count = inputs.size();
+		if (count > 1 && batchSupported == null) {
+			try {
+				double[][] features = runBatch(inputs);
+				batchSupported = true;
+				return features;
+			} catch (IllegalArgumentException | IllegalStateException e) {
+				Log.w(TAG, "ImageClassifier: The model doesn't support batches, classifying one by one", e);
+				batchSupported = false;
+			}
+		}
+		if (count == 1 || !batchSupported) {
+			double[][] features = new double[count][];
+			for (int i = 0; i < count; i++) {
+				features[i] = recognizePixels(inputs.get(i));
+			}
+			return features;
+		}
+		return runBatch(inputs);
+	}
+
+	@NonNull
+	private double[][] runBatch(@NonNull List<ByteBuffer> inputs) {
+		int count = inputs.size();
+		resizeBatch(count);
+		int imageBytes = inputSize * inputSize * PIXEL_SIZE;
+		if (batchBuffer == null || batchBuffer.capacity() != count * imageBytes) {
+			batchBuffer = ByteBuffer.allocateDirect(count * imageBytes);
+			batchBuffer.order(ByteOrder.nativeOrder());
+			batchOutput = new byte[count][getFeatureCount()];
+		}
+		batchBuffer.clear();
+		for (ByteBuffer input : inputs) {
+			input.rewind();
+			batchBuffer.put(input);
+		}
+		batchBuffer.rewind();
+		interpreter.run(batchBuffer, batchOutput);
+		double[][] features = new double[count][];
+		for (int i = 0; i < count; i++) {
+			features[i] = toFeatures(batchOutput[i], new double[getFeatureCount()]);
+		}
+		return features;
+	}
+
+	/**
+	 * @return The model input size, in pixels per dimension
+	 */
+	public int getInputSize() {
+		return inputSize;
+	}
+
+	/**
+	 * @return The length of the feature vectors
+	 */
+	public int getFeatureCount() {
+		return labels.size();
+	}
+
+	/**
+	 * @return The classifier input buffer (inputSize x inputSize pixels, as RGB bytes), cleared for filling, to be
+	 * passed to {@link #recognizePixels(ByteBuffer)}. Only valid until the next classification.
+	 */
+	@NonNull
+	public ByteBuffer getInputBuffer() {
+		inputBuffer.clear();
+		return inputBuffer;
+	}
+
+	/**
+	 * @param byteBuffer The input pixels, as filled into {@link #getInputBuffer()}
+	 * @return A new feature vector
+	 */
+	public double[] recognizePixels(@NonNull ByteBuffer byteBuffer) {
+		return recognizePixels(byteBuffer, new double[getFeatureCount()]);
+	}
+
+	/**
+	 * Same as {@link #recognizePixels(ByteBuffer)}, writing the feature vector into the given array
+	 *
+	 * @param features An array of {@link #getFeatureCount()} elements
+	 * @return The given array
+	 */
+	public double[] recognizePixels(@NonNull ByteBuffer byteBuffer, @NonNull double[] features) {
+		resizeBatch(1);
+		byteBuffer.rewind();
+		interpreter.run(byteBuffer, output);
+		return toFeatures(output[0], features);
+	}
+
+	private void resizeBatch(int size) {
+		if (size != batchSize) {
+			interpreter.resizeInput(0, new int[]{size, inputSize, inputSize, PIXEL_SIZE});
+			batchSize = size;
+		}
+	}
+
+	@NonNull
+	private static double[] toFeatures(@NonNull byte[] result, @NonNull double[] features) {
+		for (int i = 0; i < result.length; ++i) {
 			// Calculating feature confidence
-			vector[i] = (result[0][i] & 0xff) / 255.0f;
+			features[i] = (result[i] & 0xff) / 255.0f;
 		}
-		return vector;
+		return features;
 	}
 
 	@Override
@@ -46,7 +225,7 @@ public class ImageClassifier implements Closeable {
 		interpreter = null;
 	}
 
-	private MappedByteBuffer loadModelFile(@NonNull AssetManager assetManager, String modelPath) throws IOException {
+	static MappedByteBuffer loadModelFile(@NonNull AssetManager assetManager, String modelPath) throws IOException {
 		AssetFileDescriptor fileDescriptor = assetManager.openFd(modelPath);
 		FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
 		FileChannel fileChannel = inputStream.getChannel();
@@ -55,7 +234,7 @@ public class ImageClassifier implements Closeable {
 		return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
 	}
 
-	private List<String> loadLabels(@NonNull AssetManager assetManager, String labelPath) throws IOException {
+	static List<String> loadLabels(@NonNull AssetManager assetManager, String labelPath) throws IOException {
 		List<String> labels = new ArrayList<>();
 		try (BufferedReader reader = new BufferedReader(new InputStreamReader(assetManager.open(labelPath)))) {
 			String line;
@@ -66,19 +245,31 @@ public class ImageClassifier implements Closeable {
 		return labels;
 	}
 
-	private ByteBuffer convertBitmapToByteBuffer(@NonNull Bitmap bitmap) {
-		final int BATCH_SIZE = 1;
-		final int PIXEL_SIZE = 3;
-		final int pixelNum = inputSize * inputSize;
-		ByteBuffer byteBuffer = ByteBuffer.allocateDirect(BATCH_SIZE * pixelNum * PIXEL_SIZE);
-		byteBuffer.order(ByteOrder.nativeOrder());
-		int[] pixels = new int[pixelNum];
+	/**
+	 * Fills the given input buffer with the bitmap pixels, converted to RGB bytes and copied in one bulk put.
+	 * Doesn't depend on a classifier, so images can be preprocessed on other threads than the inference.
+	 *
+	 * @param bitmap The image, scaled to the model input size
+	 * @param input  The buffer to fill, from {@link #createInputBuffer()} or {@link #getInputBuffer()}
+	 */
+	public static void fillInput(@NonNull Bitmap bitmap, @NonNull ByteBuffer input) {
+		int pixelNum = bitmap.getWidth() * bitmap.getHeight();
+		int[] pixels = PIXELS.get();
+		byte[] rgb = RGB.get();
+		if (pixels == null || pixels.length != pixelNum) {
+			pixels = new int[pixelNum];
+			rgb = new byte[pixelNum * PIXEL_SIZE];
+			PIXELS.set(pixels);
+			RGB.set(rgb);
+		}
 		bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-		for (int pixel : pixels) {
-			byteBuffer.put((byte) ((pixel >> 16) & 0xFF));
-			byteBuffer.put((byte) ((pixel >> 8) & 0xFF));
-			byteBuffer.put((byte) (pixel & 0xFF));
+		for (int i = 0, j = 0; i < pixels.length; i++) {
+			int pixel = pixels[i];
+			rgb[j++] = (byte) ((pixel >> 16) & 0xFF);
+			rgb[j++] = (byte) ((pixel >> 8) & 0xFF);
+			rgb[j++] = (byte) (pixel & 0xFF);
 		}
-		return byteBuffer;
+		input.clear();
+		input.put(rgb);
 	}
-}
\ No newline at end of file
+}
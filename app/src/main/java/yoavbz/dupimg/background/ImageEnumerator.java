@@ -0,0 +1,53 @@
+package yoavbz.dupimg.background;
+
+import android.content.Context;
+import android.preference.PreferenceManager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collection;
+
+import yoavbz.dupimg.database.ImageDatabase;
+
+/**
+ * Finds the image changes in the selected directories, relative to the images in the database
+ */
+public interface ImageEnumerator {
+
+	String BACKEND_FILE_SYSTEM = "fileSystem";
+	String BACKEND_MEDIA_STORE = "mediaStore";
+
+	/**
+	 * Creates the enumerator selected by the "scanBackend" preference (file system by default).
+	 * Should be called from a background thread.
+	 *
+	 * @param listener Optional listener for the file system walk, see {@link DirectoryWalker#walk}
+	 */
+	@NonNull
+	static ImageEnumerator create(@NonNull Context context, @NonNull ImageDatabase db,
+	                              @Nullable DirectoryWalker.OnImageFoundListener listener) {
+		String backend = PreferenceManager.getDefaultSharedPreferences(context)
+		                                  .getString("scanBackend", BACKEND_FILE_SYSTEM);
+		if (BACKEND_MEDIA_STORE.equals(backend)) {
+			return new MediaStoreEnumerator(context);
+		}
+		return new FileSystemEnumerator(context, db, listener);
+	}
+
+	/**
+	 * Should be called from a background thread
+	 *
+	 * @param knownPaths The image paths in the database
+	 * @param dirs       The directories to enumerate
+	 * @return The changes since the last committed enumeration
+	 */
+	@NonNull
+	ImageChangeSet enumerate(@NonNull Collection<String> knownPaths, @NonNull String... dirs);
+
+	/**
+	 * Persists the enumeration state, so the next enumeration starts from here.
+	 * Should be called from a background thread, only after the changes were stored.
+	 */
+	void commit();
+}
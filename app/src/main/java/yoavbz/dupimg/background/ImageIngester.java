@@ -0,0 +1,268 @@
+package yoavbz.dupimg.background;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+import yoavbz.dupimg.Image;
+import yoavbz.dupimg.database.ImageDao;
+import yoavbz.dupimg.decode.BitmapPool;
+import yoavbz.dupimg.decode.ThumbnailStore;
+
+import static yoavbz.dupimg.MainActivity.TAG;
+
+/**
+ * Turns new image paths into classified {@link Image} objects.
+ * Byte-identical files (by {@link ContentFingerprint}) are grouped before classification,
+ * so only one file of each group is decoded and classified, and the rest share its feature vector.
+ * A group identical to an image that is already in the database reuses that image's feature vector.
+ * <p>
+ * Before ingesting, {@link #relocateMoved(Set)} matches vanished images to new ones by fingerprint,
+ * so moved and renamed images keep their stored rows instead of being classified again.
+ */
+public class ImageIngester {
+
+	// Reading a few files at once keeps the storage busy, more only compete for it
+	private static final int DEFAULT_READ_THREADS = 2;
+
+	private final Context context;
+	private final ImageDao dao;
+	private final ClassifierPool classifiers;
+	private final VolumeScheduler scheduler;
+	private final boolean useExifThumbnails;
+	private final boolean useDcDecoder;
+	private final int readThreads;
+	private final int decodeThreads;
+	// Filled concurrently by the volume pools, may contain null values for unreadable files
+	private final Map<String, String> fingerprintCache = Collections.synchronizedMap(new HashMap<>());
+
+	/**
+	 * @param classifiers The classifiers to ingest by, one classifying thread per classifier
+	 */
+	public ImageIngester(@NonNull Context context, @NonNull ImageDao dao, @NonNull ClassifierPool classifiers) {
+		this.context = context;
+		this.dao = dao;
+		this.classifiers = classifiers;
+		scheduler = VolumeScheduler.getInstance(context);
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+		useExifThumbnails = prefs.getBoolean("exifThumbnails", false);
+		useDcDecoder = prefs.getBoolean("jpegDcDecoder", false);
+		readThreads = Math.max(1, prefs.getInt("readThreads", DEFAULT_READ_THREADS));
+		// 0 (the default) for a decoding thread per core
+		int decodeThreads = prefs.getInt("decodeThreads", 0);
+		this.decodeThreads = decodeThreads > 0 ? decodeThreads : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Detects images that were moved or renamed, by matching the fingerprints (which include the file size) of
+	 * vanished database images to those of new local images, and re-keys their rows to the new paths.
+	 * Should be called from a background thread, before removing vanished images from the database.
+	 *
+	 * @param localImages All the local image paths
+	 * @return The relocated images, old paths mapped to new paths
+	 */
+	@NonNull
+	public Map<String, String> relocateMoved(@NonNull Set<String> localImages) {
+		Set<String> known = new HashSet<>(dao.getAllPaths());
+		Set<String> vanished = new HashSet<>(known);
+		vanished.removeAll(localImages);
+		Set<String> added = new HashSet<>(localImages);
+		added.removeAll(known);
+		return relocateMoved(vanished, added);
+	}
+
+	/**
+	 * Same as {@link #relocateMoved(Set)}, for already known vanished and new paths
+	 *
+	 * @param vanishedPaths Database paths that no longer exist
+	 * @param newPaths      Local paths that aren't in the database
+	 * @return The relocated images, old paths mapped to new paths
+	 */
+	@NonNull
+	public Map<String, String> relocateMoved(@NonNull Collection<String> vanishedPaths,
+	                                         @NonNull Collection<String> newPaths) {
+		Map<String, String> moves = new HashMap<>();
+		if (vanishedPaths.isEmpty() || newPaths.isEmpty()) {
+			return moves;
+		}
+		Set<String> vanishedSet = new HashSet<>(vanishedPaths);
+		Map<String, Deque<String>> vanished = new HashMap<>();
+		for (ImageDao.StoredFingerprint stored : dao.getFingerprints()) {
+			if (vanishedSet.contains(stored.path)) {
+				vanished.computeIfAbsent(stored.fingerprint, fingerprint -> new ArrayDeque<>()).add(stored.path);
+			}
+		}
+		if (vanished.isEmpty()) {
+			return moves;
+		}
+		prefetchFingerprints(newPaths);
+		for (String path : newPaths) {
+			Deque<String> candidates = vanished.get(getFingerprint(path));
+			if (candidates != null && !candidates.isEmpty()) {
+				moves.put(candidates.poll(), path);
+			}
+		}
+		if (!moves.isEmpty()) {
+			dao.relocate(moves);
+			ThumbnailStore thumbnails = ThumbnailStore.getInstance(context);
+			moves.forEach(thumbnails::move);
+			Log.d(TAG, "ImageIngester: Relocated " + moves.size() + " moved images");
+		}
+		return moves;
+	}
+
+	/**
+	 * Applies the given changes to the database, except for the additions: re-keys moved images, deletes removed
+	 * images, and moves images whose content was changed to the additions, so they're classified again.
+	 * Should be called from a background thread, before ingesting {@link ImageChangeSet#getAdded()}.
+	 *
+	 * @param changes The changes to apply, updated in place
+	 * @return true if the database was changed
+	 */
+	public boolean applyRemovals(@NonNull ImageChangeSet changes) {
+		Set<String> added = changes.getAdded();
+		Set<String> removed = changes.getRemoved();
+		// Re-keying images that were moved or renamed, keeping their feature vectors
+		Map<String, String> moves = relocateMoved(removed, added);
+		removed.removeAll(moves.keySet());
+		added.removeAll(moves.values());
+		// Re-classifying images whose content was changed
+		prefetchFingerprints(changes.getModified());
+		for (String path : changes.getModified()) {
+			if (isContentChanged(path)) {
+				removed.add(path);
+				added.add(path);
+			}
+		}
+		changes.getModified().clear();
+		ThumbnailStore thumbnails = ThumbnailStore.getInstance(context);
+		for (String path : removed) {
+			dao.delete(path);
+			thumbnails.remove(path);
+		}
+		return !moves.isEmpty() || !removed.isEmpty();
+	}
+
+	/**
+	 * Images stored without a fingerprint (inserted before fingerprints were stored) can't be compared, so they're
+	 * fingerprinted now instead, and considered unchanged
+	 *
+	 * @return true if the given database image content differs from its stored fingerprint
+	 */
+	public boolean isContentChanged(@NonNull String path) {
+		String stored = dao.getFingerprint(path);
+		String current = getFingerprint(path);
+		if (stored == null) {
+			if (current != null) {
+				dao.setFingerprint(path, current);
+			}
+			return false;
+		}
+		return !stored.equals(current);
+	}
+
+	/**
+	 * Classifies the given images by an {@link IngestPipeline}, overlapping the file reads, the decoding and the
+	 * batched classification.
+	 * Byte-identical images are classified once, sharing the feature vector.
+	 * Should be called from a background thread
+	 *
+	 * @param paths    The new image paths
+	 * @param listener Optional listener, called serially after each path is processed (once its batch is
+	 *                 classified), from the pipeline threads.
+	 *                 May abort the ingestion by throwing an unchecked exception.
+	 * @return The successfully classified images
+	 * @throws CancellationException If the calling thread is interrupted
+	 */
+	@NonNull
+	public List<Image> ingest(@NonNull Collection<String> paths, @Nullable OnImageIngestedListener listener) {
+		return ingest(paths, listener, false);
+	}
+
+	/**
+	 * Same as {@link #ingest(Collection, OnImageIngestedListener)}, also inserting the classified images into the
+	 * database as they're classified, in chunks
+	 */
+	@NonNull
+	public List<Image> ingestAndInsert(@NonNull Collection<String> paths,
+	                                   @Nullable OnImageIngestedListener listener) {
+		return ingest(paths, listener, true);
+	}
+
+	@NonNull
+	private List<Image> ingest(@NonNull Collection<String> paths, @Nullable OnImageIngestedListener listener,
+	                           boolean insert) {
+		prefetchFingerprints(paths);
+		Map<String, String> fingerprints = new LinkedHashMap<>();
+		for (String path : paths) {
+			fingerprints.put(path, getFingerprint(path));
+		}
+		List<List<String>> groups = new ArrayList<>(ContentFingerprint.groupIdentical(fingerprints));
+		List<Image> images = new IngestPipeline(context, this, classifiers, insert ? dao : null, useExifThumbnails,
+		                                        useDcDecoder, groups, fingerprints, listener, readThreads,
+		                                        decodeThreads).run();
+		BitmapPool.getInstance().logStats();
+		return images;
+	}
+
+	/**
+	 * Reads the fingerprints of the given paths concurrently, scheduled per storage volume
+	 */
+	private void prefetchFingerprints(@NonNull Collection<String> paths) {
+		List<String> missing = new ArrayList<>();
+		for (String path : paths) {
+			if (!fingerprintCache.containsKey(path)) {
+				missing.add(path);
+			}
+		}
+		scheduler.forEach(missing, path -> fingerprintCache.put(path, ContentFingerprint.computeOrNull(path)));
+	}
+
+	@Nullable
+	private String getFingerprint(@NonNull String path) {
+		if (!fingerprintCache.containsKey(path)) {
+			fingerprintCache.put(path, ContentFingerprint.computeOrNull(path));
+		}
+		return fingerprintCache.get(path);
+	}
+
+	/**
+	 * @return An image in the database which is identical to the given one, null if none
+	 */
+	@Nullable
+	Image getKnownImage(@NonNull String path, @Nullable String fingerprint) {
+		if (fingerprint == null) {
+			return null;
+		}
+		Image known = dao.getByFingerprint(fingerprint);
+		if (known != null && ContentFingerprint.isIdentical(path, known.getPath())) {
+			return known;
+		}
+		return null;
+	}
+
+	public interface OnImageIngestedListener {
+		/**
+		 * @param path  The processed path
+		 * @param image The resulting image, null if the path couldn't be classified
+		 */
+		void onImageIngested(@NonNull String path, @Nullable Image image);
+	}
+}
@@ -0,0 +1,434 @@
+package yoavbz.dupimg.background;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import yoavbz.dupimg.Image;
+import yoavbz.dupimg.database.ImageDao;
+import yoavbz.dupimg.decode.ThumbnailStore;
+
+import static yoavbz.dupimg.MainActivity.TAG;
+
+/**
+ * Ingests groups of identical images in stages, each running on its own threads and connected to the next one by a
+ * bounded queue, so reading the files, decoding them, classifying and inserting into the database overlap:
+ * <ol>
+ * <li>Read: skips groups identical to known images, and reads the first file of each group into memory</li>
+ * <li>Decode: decodes the read files into model input buffers</li>
+ * <li>Infer: classifies the decoded images in batches, a thread per classifier of the pool</li>
+ * <li>Write: inserts the classified images into the database in chunks (optional)</li>
+ * </ol>
+ * A full queue blocks the stage feeding it, and the read bytes and the input buffers are capped, so the memory
+ * doesn't grow with the number of images. A pipeline runs once.
+ */
+class IngestPipeline {
+
+	// The maximal number of images classified per interpreter run
+	private static final int BATCH_SIZE = 8;
+	// The maximal number of images inserted per transaction
+	private static final int WRITE_CHUNK_SIZE = 64;
+	// Larger files are decoded from their path rather than read into memory
+	private static final int MAX_READ_SIZE = 16 * 1024 * 1024;
+	// The maximal number of bytes read ahead of the decoding
+	private static final int READ_BUDGET = 32 * 1024 * 1024;
+
+	// The queue ends, passed on by each consumer to the next one
+	private static final Read END_OF_READS = new Read(Collections.emptyList(), null, null);
+	private static final Pending END_OF_PENDING = new Pending(new Image(), null, Collections.emptyList(), 0);
+	private static final Image END_OF_IMAGES = new Image();
+
+	private final Context context;
+	private final ImageIngester ingester;
+	private final ClassifierPool classifiers;
+	private final ThumbnailStore thumbnails;
+	@Nullable
+	private final ImageDao dao;
+	private final boolean useExifThumbnails;
+	private final boolean useDcDecoder;
+	private final List<List<String>> groups;
+	private final Map<String, String> fingerprints;
+	@Nullable
+	private final ImageIngester.OnImageIngestedListener listener;
+	private final int readThreads;
+	private final int decodeThreads;
+	private final int inferThreads;
+
+	private final BlockingQueue<Read> decodeQueue;
+	private final BlockingQueue<Pending> inferQueue;
+	@Nullable
+	private final BlockingQueue<Image> writeQueue;
+	private final BlockingQueue<ByteBuffer> freeInputs;
+	private final int maxInputs;
+	private final AtomicInteger createdInputs = new AtomicInteger();
+	private final Semaphore readBudget = new Semaphore(READ_BUDGET);
+	private final AtomicInteger nextGroup = new AtomicInteger();
+	private final AtomicInteger reused = new AtomicInteger();
+	private final List<Image> images = Collections.synchronizedList(new ArrayList<>());
+	private final ExecutorService executor;
+	private Throwable failure;
+
+	/**
+	 * @param dao           The database to insert the classified images into, null to only return them
+	 * @param groups        The groups of identical new images to ingest
+	 * @param fingerprints  The fingerprints of the new images
+	 * @param listener      Optional listener, called serially after each path is processed
+	 * @param readThreads   The number of threads reading the files
+	 * @param decodeThreads The number of threads decoding the read files
+	 */
+	IngestPipeline(@NonNull Context context, @NonNull ImageIngester ingester, @NonNull ClassifierPool classifiers,
+	               @Nullable ImageDao dao, boolean useExifThumbnails, boolean useDcDecoder,
+	               @NonNull List<List<String>> groups, @NonNull Map<String, String> fingerprints,
+	               @Nullable ImageIngester.OnImageIngestedListener listener, int readThreads, int decodeThreads) {
+		this.context = context;
+		thumbnails = ThumbnailStore.getInstance(context);
+		this.ingester = ingester;
+		this.classifiers = classifiers;
+		this.dao = dao;
+		this.useExifThumbnails = useExifThumbnails;
+		this.useDcDecoder = useDcDecoder;
+		this.groups = groups;
+		this.fingerprints = fingerprints;
+		this.listener = listener;
+		this.readThreads = Math.max(1, Math.min(readThreads, groups.size()));
+		this.decodeThreads = Math.max(1, Math.min(decodeThreads, groups.size()));
+		inferThreads = Math.max(1, Math.min(classifiers.size(), groups.size()));
+		decodeQueue = new ArrayBlockingQueue<>(this.decodeThreads * 2);
+		// Enough decoded images for a batch per classifier
+		inferQueue = new ArrayBlockingQueue<>(inferThreads * BATCH_SIZE);
+		writeQueue = dao == null ? null : new ArrayBlockingQueue<>(WRITE_CHUNK_SIZE * 2);
+		// An input buffer per decoding thread, queued image and image being classified
+		maxInputs = this.decodeThreads + 2 * inferThreads * BATCH_SIZE;
+		freeInputs = new ArrayBlockingQueue<>(maxInputs);
+		executor = Executors.newFixedThreadPool(this.readThreads + this.decodeThreads + inferThreads +
+		                                        (dao == null ? 0 : 1));
+	}
+
+	/**
+	 * Runs all the stages, and waits for them to finish
+	 *
+	 * @return The successfully classified images
+	 * @throws CancellationException If the calling thread is interrupted
+	 */
+	@NonNull
+	List<Image> run() {
+		if (groups.isEmpty()) {
+			return new ArrayList<>();
+		}
+		start(readThreads, this::read, decodeQueue, END_OF_READS);
+		start(decodeThreads, this::decode, inferQueue, END_OF_PENDING);
+		start(inferThreads, this::infer, writeQueue, END_OF_IMAGES);
+		if (writeQueue != null) {
+			start(1, this::write, null, null);
+		}
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				Log.d(TAG, "IngestPipeline: Still ingesting, " + images.size() + " images so far");
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			// Waiting for the stages to stop, so no thread still uses a classifier (or the database) once cancelled
+			awaitTerminationUninterruptibly();
+			Thread.currentThread().interrupt();
+			throw new CancellationException();
+		}
+		synchronized (this) {
+			if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			} else if (failure instanceof Error) {
+				throw (Error) failure;
+			}
+		}
+		Log.d(TAG, "IngestPipeline: Classified " + (images.size() - reused.get()) + " images, reused " +
+				reused.get() + " feature vectors of identical images, on " + readThreads + " reading, " +
+				decodeThreads + " decoding and " + inferThreads + " classifying threads");
+		return new ArrayList<>(images);
+	}
+
+	private void awaitTerminationUninterruptibly() {
+		boolean terminated = false;
+		while (!terminated) {
+			try {
+				terminated = executor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException ignored) {
+				// The caller is already cancelling, the interrupt is restored by run()
+			}
+		}
+	}
+
+	/**
+	 * Runs a stage on the given number of threads, and ends the output queue once all of them are done.
+	 * A failure of any stage aborts the whole pipeline, by interrupting all the threads.
+	 */
+	private <T> void start(int threads, @NonNull Stage stage, @Nullable BlockingQueue<T> output, @Nullable T end) {
+		AtomicInteger running = new AtomicInteger(threads);
+		for (int i = 0; i < threads; i++) {
+			executor.execute(() -> {
+				try {
+					stage.run();
+					if (running.decrementAndGet() == 0 && output != null) {
+						output.put(end);
+					}
+				} catch (InterruptedException e) {
+					// Aborted
+				} catch (Throwable e) {
+					abort(e);
+				}
+			});
+		}
+	}
+
+	private synchronized void abort(@NonNull Throwable e) {
+		if (failure == null) {
+			failure = e;
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Takes the groups one by one, adding the copies of known images, and reads the first file of the others
+	 */
+	private void read() throws InterruptedException {
+		int index;
+		while ((index = nextGroup.getAndIncrement()) < groups.size()) {
+			List<String> group = groups.get(index);
+			String first = group.get(0);
+			String fingerprint = fingerprints.get(first);
+			Image known = ingester.getKnownImage(first, fingerprint);
+			if (known != null) {
+				addCopies(group, 0, known, fingerprint);
+				continue;
+			}
+			long size = new File(first).length();
+			byte[] data = null;
+			if (size > 0 && size <= MAX_READ_SIZE) {
+				readBudget.acquire((int) size);
+				try {
+					data = Files.readAllBytes(new File(first).toPath());
+				} catch (IOException e) {
+					// Decoding from the path instead, reporting the failure if it persists
+					Log.w(TAG, "IngestPipeline: Couldn't read " + first, e);
+				}
+				if (data == null || data.length != size) {
+					readBudget.release((int) size);
+					data = null;
+				}
+			}
+			decodeQueue.put(new Read(group, fingerprint, data));
+		}
+	}
+
+	/**
+	 * Decodes the first decodable image of each read group into a free input buffer
+	 */
+	private void decode() throws InterruptedException {
+		int inputSize = classifiers.getInputSize();
+		Read read;
+		while ((read = decodeQueue.take()) != END_OF_READS) {
+			ByteBuffer input = takeInput();
+			Pending pending = null;
+			try {
+				for (int i = 0; i < read.group.size() && pending == null; i++) {
+					String path = read.group.get(i);
+					try {
+						Image image = new Image(path, i == 0 ? read.data : null, context, inputSize,
+						                        useExifThumbnails, useDcDecoder, input);
+						image.setFingerprint(read.fingerprint);
+						pending = new Pending(image, input, read.group, i + 1);
+					} catch (Exception e) {
+						Log.e(TAG, "IngestPipeline: Couldn't classify " + path, e);
+						notifyListener(path, null);
+					}
+				}
+			} finally {
+				if (read.data != null) {
+					readBudget.release(read.data.length);
+				}
+				if (pending == null) {
+					freeInputs.add(input);
+				}
+			}
+			if (pending != null) {
+				inferQueue.put(pending);
+			}
+		}
+		decodeQueue.put(END_OF_READS);
+	}
+
+	/**
+	 * @return A free input buffer, allocated if there are less than the maximum
+	 */
+	@NonNull
+	private ByteBuffer takeInput() throws InterruptedException {
+		ByteBuffer input = freeInputs.poll();
+		if (input != null) {
+			return input;
+		}
+		if (createdInputs.getAndIncrement() < maxInputs) {
+			return ImageClassifier.createInputBuffer(classifiers.getInputSize());
+		}
+		return freeInputs.take();
+	}
+
+	/**
+	 * Classifies the decoded images by a classifier checked out of the pool, in batches of the images that are
+	 * already decoded (up to {@link #BATCH_SIZE}), so the classification never waits for a batch to fill up
+	 */
+	private void infer() throws InterruptedException {
+		ImageClassifier classifier = classifiers.acquire();
+		try {
+			List<Pending> batch = new ArrayList<>(BATCH_SIZE);
+			List<ByteBuffer> inputs = new ArrayList<>(BATCH_SIZE);
+			boolean ended = false;
+			while (!ended) {
+				batch.add(inferQueue.take());
+				inferQueue.drainTo(batch, BATCH_SIZE - 1);
+				ended = batch.remove(END_OF_PENDING);
+				if (ended) {
+					inferQueue.put(END_OF_PENDING);
+				}
+				if (batch.isEmpty()) {
+					continue;
+				}
+				for (Pending pending : batch) {
+					inputs.add(pending.input);
+				}
+				double[][] features = classifier.recognizeBatch(inputs);
+				freeInputs.addAll(inputs);
+				for (int i = 0; i < batch.size(); i++) {
+					Pending pending = batch.get(i);
+					pending.image.setPoint(features[i]);
+					emit(pending.image.getPath(), pending.image);
+					addCopies(pending.group, pending.copiesStart, pending.image, pending.image.getFingerprint());
+				}
+				batch.clear();
+				inputs.clear();
+			}
+		} finally {
+			classifiers.release(classifier);
+		}
+	}
+
+	/**
+	 * Inserts the classified images into the database, in chunks of the images that are already classified
+	 */
+	private void write() throws InterruptedException {
+		List<Image> chunk = new ArrayList<>(WRITE_CHUNK_SIZE);
+		boolean ended = false;
+		while (!ended) {
+			chunk.add(writeQueue.take());
+			writeQueue.drainTo(chunk, WRITE_CHUNK_SIZE - 1);
+			ended = chunk.remove(END_OF_IMAGES);
+			if (!chunk.isEmpty()) {
+				dao.insert(chunk);
+				chunk.clear();
+			}
+		}
+	}
+
+	/**
+	 * Adds images of the given paths (of a group of identical images), sharing the feature vector and the stored
+	 * thumbnail of a classified image
+	 *
+	 * @param start The index of the first path to add
+	 */
+	private void addCopies(@NonNull List<String> group, int start, @NonNull Image classified,
+	                       @Nullable String fingerprint) throws InterruptedException {
+		for (String path : group.subList(start, group.size())) {
+			Image image;
+			try {
+				image = new Image(path, context, classified.getPoint());
+				image.setThumbnailDecoded(classified.isThumbnailDecoded());
+				image.setFingerprint(fingerprint);
+				thumbnails.copy(classified.getPath(), path, image.getFileSize(), image.getLastModified());
+				reused.incrementAndGet();
+			} catch (Exception e) {
+				Log.e(TAG, "IngestPipeline: Couldn't classify " + path, e);
+				notifyListener(path, null);
+				continue;
+			}
+			emit(path, image);
+		}
+	}
+
+	/**
+	 * Adds a classified image to the results and to the write queue, and notifies the listener
+	 */
+	private void emit(@NonNull String path, @NonNull Image image) throws InterruptedException {
+		images.add(image);
+		if (writeQueue != null) {
+			writeQueue.put(image);
+		}
+		notifyListener(path, image);
+	}
+
+	private void notifyListener(@NonNull String path, @Nullable Image image) {
+		if (listener != null) {
+			synchronized (listener) {
+				listener.onImageIngested(path, image);
+			}
+		}
+	}
+
+	private interface Stage {
+		void run() throws InterruptedException;
+	}
+
+	/**
+	 * A group of identical images, with the content of its first file if read
+	 */
+	private static class Read {
+
+		private final List<String> group;
+		@Nullable
+		private final String fingerprint;
+		@Nullable
+		private final byte[] data;
+
+		private Read(@NonNull List<String> group, @Nullable String fingerprint, @Nullable byte[] data) {
+			this.group = group;
+			this.fingerprint = fingerprint;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * An image decoded into an input buffer, waiting for its classification
+	 */
+	private static class Pending {
+
+		private final Image image;
+		private final ByteBuffer input;
+		private final List<String> group;
+		// The index of the first identical image in the group to share the feature vector with
+		private final int copiesStart;
+
+		private Pending(@NonNull Image image, @Nullable ByteBuffer input, @NonNull List<String> group,
+		                int copiesStart) {
+			this.image = image;
+			this.input = input;
+			this.group = group;
+			this.copiesStart = copiesStart;
+		}
+	}
+}
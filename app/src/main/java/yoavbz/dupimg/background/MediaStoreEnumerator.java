@@ -0,0 +1,229 @@
+package yoavbz.dupimg.background;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import yoavbz.dupimg.treeview.Directory;
+
+import static yoavbz.dupimg.MainActivity.TAG;
+
+/**
+ * Enumerates images by querying {@link MediaStore.Images} instead of walking the file system.
+ * Rows added or modified since a persisted watermark are fetched with their dates, and a reconciliation query
+ * reading only the paths of the indexed images finds removed and moved images (which keep their dates and the
+ * number of rows), and old images in newly selected directories.
+ * The first enumeration has no watermark, so it only reconciles, and seeds the watermark by the newest row.
+ * <p>
+ * Note that images in directories excluded from the media scanner (e.g. by a .nomedia file) aren't found.
+ */
+public class MediaStoreEnumerator implements ImageEnumerator {
+
+	private static final String WATERMARK_KEY = "mediaStoreWatermark";
+	private static final String DATA = MediaStore.Images.Media.DATA;
+	private static final String DATE_ADDED = MediaStore.Images.Media.DATE_ADDED;
+	private static final String DATE_MODIFIED = MediaStore.Images.Media.DATE_MODIFIED;
+
+	private final ContentResolver resolver;
+	private final SharedPreferences pref;
+	private long watermark;
+
+	MediaStoreEnumerator(@NonNull Context context) {
+		resolver = context.getContentResolver();
+		pref = PreferenceManager.getDefaultSharedPreferences(context);
+	}
+
+	@NonNull
+	@Override
+	public ImageChangeSet enumerate(@NonNull Collection<String> knownPaths, @NonNull String... dirs) {
+		ImageChangeSet changes = new ImageChangeSet();
+		if (dirs.length == 0) {
+			changes.getRemoved().addAll(knownPaths);
+			return changes;
+		}
+		Set<String> known = new HashSet<>(knownPaths);
+		Set<String> knownInDirs = new HashSet<>();
+		for (String path : known) {
+			// Images out of the selected directories were deselected
+			(isUnder(path, dirs) ? knownInDirs : changes.getRemoved()).add(path);
+		}
+
+		// Without a watermark (first use of this backend) all the rows are as new as the watermark, so the known
+		// images are taken as unchanged, and the watermark is seeded by the reconciliation query instead
+		boolean seeding = !pref.contains(WATERMARK_KEY);
+		long lastWatermark = pref.getLong(WATERMARK_KEY, 0);
+		watermark = lastWatermark;
+		List<String> args = new ArrayList<>();
+		if (!seeding) {
+			// Delta query: rows added (also by moving) or modified since the watermark
+			String dirSelection = buildDirSelection(args, dirs);
+			args.add(String.valueOf(lastWatermark));
+			args.add(String.valueOf(lastWatermark));
+			String selection = dirSelection + " AND (" + DATE_ADDED + " >= ? OR " + DATE_MODIFIED + " >= ?)";
+			try (Cursor cursor = resolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+			                                    new String[]{DATA, DATE_ADDED, DATE_MODIFIED}, selection,
+			                                    args.toArray(new String[0]), null)) {
+				while (cursor != null && cursor.moveToNext()) {
+					String path = cursor.getString(0);
+					if (path == null || !isUnder(path, dirs)) {
+						continue;
+					}
+					watermark = Math.max(watermark, Math.max(cursor.getLong(1), cursor.getLong(2)));
+					(known.contains(path) ? changes.getModified() : changes.getAdded()).add(path);
+				}
+			}
+		}
+
+		// Reconciliation query, matching every indexed row to the known images by its path, as a row moved within
+		// the selected directories keeps its dates and the number of rows
+		args.clear();
+		String[] projection = seeding ? new String[]{DATA, DATE_ADDED, DATE_MODIFIED} : new String[]{DATA};
+		try (Cursor cursor = resolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, projection,
+		                                    buildDirSelection(args, dirs), args.toArray(new String[0]), null)) {
+			if (cursor != null) {
+				Set<String> present = new HashSet<>();
+				while (cursor.moveToNext()) {
+					String path = cursor.getString(0);
+					if (path != null && isUnder(path, dirs)) {
+						present.add(path);
+						if (!known.contains(path)) {
+							changes.getAdded().add(path);
+						}
+						if (seeding) {
+							watermark = Math.max(watermark, Math.max(cursor.getLong(1), cursor.getLong(2)));
+						}
+					}
+				}
+				for (String path : knownInDirs) {
+					if (!present.contains(path)) {
+						changes.getRemoved().add(path);
+					}
+				}
+			}
+		}
+		Log.d(TAG, "MediaStoreEnumerator: Found " + changes + " since " + lastWatermark);
+		return changes;
+	}
+
+	@Override
+	public void commit() {
+		pref.edit()
+		    .putLong(WATERMARK_KEY, watermark)
+		    .apply();
+	}
+
+	/**
+	 * Resolves the content URIs that triggered a job into the changes of their images
+	 *
+	 * @param uris       The triggered {@link MediaStore.Images} item URIs
+	 * @param knownPaths The image paths in the database
+	 * @param dirs       The selected directories, images out of them are ignored
+	 * @return The changes, or null if some URI couldn't be resolved (e.g. its row was deleted)
+	 */
+	@Nullable
+	static ImageChangeSet getChanges(@NonNull Context context, @NonNull Uri[] uris,
+	                                 @NonNull Collection<String> knownPaths, @NonNull String... dirs) {
+		Set<Long> ids = new HashSet<>();
+		for (Uri uri : uris) {
+			long id;
+			try {
+				id = ContentUris.parseId(uri);
+			} catch (NumberFormatException | UnsupportedOperationException e) {
+				id = -1;
+			}
+			if (id < 0) {
+				// Not an item URI, e.g. a bulk change notification
+				return null;
+			}
+			ids.add(id);
+		}
+		StringBuilder selection = new StringBuilder(MediaStore.Images.Media._ID + " IN (");
+		List<String> args = new ArrayList<>();
+		for (Long id : ids) {
+			selection.append(args.isEmpty() ? "?" : ",?");
+			args.add(String.valueOf(id));
+		}
+		selection.append(")");
+		Set<String> known = new HashSet<>(knownPaths);
+		ImageChangeSet changes = new ImageChangeSet();
+		try (Cursor cursor = context.getContentResolver().query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+		                                                        new String[]{DATA}, selection.toString(),
+		                                                        args.toArray(new String[0]), null)) {
+			if (cursor == null || cursor.getCount() < ids.size()) {
+				return null;
+			}
+			while (cursor.moveToNext()) {
+				String path = cursor.getString(0);
+				if (path == null || !isUnder(path, dirs)) {
+					continue;
+				}
+				if (!new File(path).isFile()) {
+					if (known.contains(path)) {
+						changes.getRemoved().add(path);
+					}
+				} else {
+					(known.contains(path) ? changes.getModified() : changes.getAdded()).add(path);
+				}
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * Builds a selection matching rows under the given directories (directly under the partially selected ones)
+	 *
+	 * @param args The list to add the selection arguments to
+	 * @return The selection, with a placeholder for each directory
+	 */
+	@NonNull
+	private static String buildDirSelection(@NonNull List<String> args, @NonNull String... dirs) {
+		StringBuilder selection = new StringBuilder("(");
+		for (String dir : dirs) {
+			if (selection.length() > 1) {
+				selection.append(" OR ");
+			}
+			String prefix = new File(Directory.getDirPath(dir)).getAbsolutePath().replaceAll("([\\\\%_])", "\\\\$1") +
+					File.separator;
+			if (Directory.isTopLevelOnly(dir)) {
+				selection.append("(").append(DATA).append(" LIKE ? ESCAPE '\\' AND ")
+				         .append(DATA).append(" NOT LIKE ? ESCAPE '\\')");
+				args.add(prefix + "%");
+				args.add(prefix + "%" + File.separator + "%");
+			} else {
+				selection.append(DATA).append(" LIKE ? ESCAPE '\\'");
+				args.add(prefix + "%");
+			}
+		}
+		return selection.append(")").toString();
+	}
+
+	/**
+	 * Double-checks the (case insensitive) LIKE selection
+	 *
+	 * @return true if the given path is under one of the given directories
+	 */
+	private static boolean isUnder(@NonNull String path, @NonNull String... dirs) {
+		for (String dir : dirs) {
+			if (Directory.isSelected(dir, path)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
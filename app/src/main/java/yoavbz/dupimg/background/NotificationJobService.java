@@ -3,12 +3,18 @@ package yoavbz.dupimg.background;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
+import android.app.job.JobInfo;
 import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
 import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
+import android.net.Uri;
 import android.os.SystemClock;
 import android.preference.PreferenceManager;
+import android.provider.MediaStore;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -21,7 +27,8 @@ import org.apache.commons.math3.ml.clustering.DBSCANClusterer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import yoavbz.dupimg.Image;
@@ -29,13 +36,20 @@ import yoavbz.dupimg.MainActivity;
 import yoavbz.dupimg.R;
 import yoavbz.dupimg.database.ImageDao;
 import yoavbz.dupimg.database.ImageDatabase;
+import yoavbz.dupimg.decode.ThumbnailStore;
 import yoavbz.dupimg.gallery.ImageClusterActivity;
 
 public class NotificationJobService extends JobService {
 
+	public static final String TRIGGER_PERIODIC = "periodic";
+	public static final String TRIGGER_CONTENT = "contentUri";
+	// The minimal dimension (in pixels) of the cluster preview, enough for the notification big picture
+	private static final int NOTIFICATION_IMAGE_SIZE = 512;
+
 	private NotificationManager notificationManager;
 	private ImageDao db;
 	private Thread thread;
+	private boolean updateUi;
 
 	private static void checkInterrupt(@NonNull Thread thread) throws InterruptedException {
 		if (thread.isInterrupted()) {
@@ -43,35 +57,72 @@ public class NotificationJobService extends JobService {
 		}
 	}
 
+	/**
+	 * Schedules the background job according to the "jobTrigger" preference: either when images are added to the
+	 * {@link MediaStore} (the default), or periodically every 15 minutes.
+	 * A content-triggered job runs once, so it's rescheduled whenever it finishes.
+	 */
+	public static void schedule(@NonNull Context context) {
+		JobInfo.Builder builder = new JobInfo.Builder(MainActivity.JOB_ID,
+		                                              new ComponentName(context, NotificationJobService.class))
+				.setRequiresBatteryNotLow(true);
+		if (isContentTriggered(context)) {
+			// Content-triggered jobs can't be persisted, BootReceiver reschedules them instead
+			builder.addTriggerContentUri(new JobInfo.TriggerContentUri(
+					MediaStore.Images.Media.EXTERNAL_CONTENT_URI, JobInfo.TriggerContentUri.FLAG_NOTIFY_FOR_DESCENDANTS))
+			       .setTriggerContentUpdateDelay(TimeUnit.SECONDS.toMillis(10))
+			       .setTriggerContentMaxDelay(TimeUnit.MINUTES.toMillis(2));
+		} else {
+			builder.setPeriodic(TimeUnit.MINUTES.toMillis(15))
+			       .setPersisted(true);
+		}
+		context.getSystemService(JobScheduler.class).schedule(builder.build());
+	}
+
+	private static boolean isContentTriggered(@NonNull Context context) {
+		return TRIGGER_CONTENT.equals(PreferenceManager.getDefaultSharedPreferences(context)
+		                                               .getString("jobTrigger", TRIGGER_CONTENT));
+	}
+
 	@Override
 	public boolean onStartJob(JobParameters params) {
 		Log.d(MainActivity.TAG, "NotificationJobService: onStartJob");
 		notificationManager = getSystemService(NotificationManager.class);
+		Uri[] triggeredUris = params.getTriggeredContentAuthorities() != null ?
+				params.getTriggeredContentUris() : null;
 		thread = new Thread(() -> {
 			createNotificationChannel();
-			boolean updateUi = false;
-			try (ImageClassifier classifier = new ImageClassifier(NotificationJobService.this,
-			                                                      "mobilenet_v2_1.0_224_quant.tflite",
-			                                                      "labels.txt", 224)) {
+			updateUi = false;
+			ClassifierHolder holder = ClassifierHolder.getInstance(NotificationJobService.this);
+			try (ClassifierHolder.Lease lease = holder.acquire()) {
 				checkInterrupt(thread);
 				db = ImageDatabase.getAppDatabase(NotificationJobService.this).imageDao();
+				ImageIngester ingester = new ImageIngester(NotificationJobService.this, db,
+				                                           lease.getClassifiers());
 				checkInterrupt(thread);
-				// Fetching all the images from the camera directory
-				List<String> localImages = getLocalImages();
-				checkInterrupt(thread);
-				// Removing from the database images that were deleted from local directory
-				boolean deletedImages = db.deleteNotInList(localImages);
-				if (deletedImages) {
-					updateUi = true;
+				// Processing only the journaled changes, unless some changes may have been missed
+				ChangeJournal journal = ChangeJournal.getInstance(NotificationJobService.this);
+				ChangeJournal.Snapshot snapshot = journal.snapshot();
+				ImageChangeSet triggeredChanges = null;
+				if (triggeredUris != null && !snapshot.isComplete()) {
+					// Processing only the triggered images (the journal is kept until the next full sync)
+					triggeredChanges = MediaStoreEnumerator.getChanges(NotificationJobService.this, triggeredUris,
+					                                                   db.getAllPaths(), getDirs());
+				}
+				List<Image> newImages;
+				if (triggeredChanges != null) {
+					newImages = processChanges(triggeredChanges, ingester);
+				} else if (snapshot.isComplete()) {
+					newImages = processChanges(snapshot.getChanges(db.getAllPaths()), ingester);
+					journal.consume(snapshot);
+				} else {
+					newImages = processAllImages(ingester);
+					journal.consume(snapshot);
 				}
-				checkInterrupt(thread);
-				// Filtering new local images, which aren't in the database
-				List<Image> newImages = getNewImages(localImages, classifier);
 				if (newImages.isEmpty()) {
 					Log.d(MainActivity.TAG, "NotificationJobService: No new images, finishing job..");
 					return;
 				}
-				db.insert(newImages);
 
 				NotificationCompat.Builder builder = new NotificationCompat.Builder(NotificationJobService.this,
 				                                                                    "dupImg")
@@ -98,6 +149,12 @@ public class NotificationJobService extends JobService {
 					Intent intent = new Intent(MainActivity.ACTION_UPDATE_UI);
 					LocalBroadcastManager.getInstance(NotificationJobService.this).sendBroadcast(intent);
 				}
+				if (isContentTriggered(NotificationJobService.this) &&
+						PreferenceManager.getDefaultSharedPreferences(NotificationJobService.this)
+						                 .getBoolean("isJobSchedule", true)) {
+					// Watching for the next changes, only now since scheduling the same job ID while it runs stops it
+					schedule(NotificationJobService.this);
+				}
 				jobFinished(params, false);
 			}
 		});
@@ -105,25 +162,48 @@ public class NotificationJobService extends JobService {
 		return true;
 	}
 
-	private List<Image> getNewImages(@NonNull List<String> localImages, ImageClassifier classifier) {
-		ArrayList<Image> newImages = new ArrayList<>();
-		// Filtering images that are already in the database
-		localImages.removeAll(db.getAllPaths());
-		for (String path : localImages) {
-			try {
-				Image image = new Image(path, this, classifier);
-				newImages.add(image);
-			} catch (Exception e) {
-				Log.e(MainActivity.TAG, "getNewImages: ", e);
+	/**
+	 * Syncs the database with all the images in the selected directories, using the selected
+	 * {@link ImageEnumerator}, and inserts the new ones
+	 *
+	 * @return The new images
+	 */
+	private List<Image> processAllImages(@NonNull ImageIngester ingester) throws InterruptedException {
+		ImageEnumerator enumerator = ImageEnumerator.create(this, ImageDatabase.getAppDatabase(this), image -> {
+			if (thread.isInterrupted()) {
+				throw new CancellationException();
 			}
-		}
+		});
+		ImageChangeSet changes = enumerator.enumerate(db.getAllPaths(), getDirs());
+		List<Image> newImages = processChanges(changes, ingester);
+		enumerator.commit();
 		return newImages;
 	}
 
-	private List<String> getLocalImages() {
-		Set<String> dirs = PreferenceManager.getDefaultSharedPreferences(this)
-		                                    .getStringSet("dirs", Collections.emptySet());
-		return ClassificationTask.fetchLocalImages((String[]) dirs.toArray(new String[0]));
+	/**
+	 * Applies the given changes to the database, and inserts the new (or modified) images
+	 *
+	 * @return The new images
+	 */
+	private List<Image> processChanges(@NonNull ImageChangeSet changes, @NonNull ImageIngester ingester)
+			throws InterruptedException {
+		Log.d(MainActivity.TAG, "NotificationJobService: Processing changes: " + changes);
+		checkInterrupt(thread);
+		if (ingester.applyRemovals(changes)) {
+			updateUi = true;
+		}
+		checkInterrupt(thread);
+		return ingester.ingestAndInsert(changes.getAdded(), (path, image) -> {
+			if (thread.isInterrupted()) {
+				throw new CancellationException();
+			}
+		});
+	}
+
+	private String[] getDirs() {
+		return PreferenceManager.getDefaultSharedPreferences(this)
+		                        .getStringSet("dirs", Collections.emptySet())
+		                        .toArray(new String[0]);
 	}
 
 	private void processClusters(@NonNull List<Cluster<Image>> clusters, NotificationCompat.Builder builder) {
@@ -134,7 +214,10 @@ public class NotificationJobService extends JobService {
 			int id = (int) SystemClock.uptimeMillis();
 			PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, intent, PendingIntent.FLAG_ONE_SHOT);
 			Image previewImg = cluster.getPoints().get(0);
-			Bitmap orientedBitmap = previewImg.getOrientedBitmap();
+			Bitmap orientedBitmap = ThumbnailStore.getInstance(this).getOrCreateBitmap(previewImg.getPath());
+			if (orientedBitmap == null) {
+				orientedBitmap = previewImg.getOrientedBitmap(NOTIFICATION_IMAGE_SIZE);
+			}
 			builder.setContentIntent(pendingIntent)
 			       .setContentTitle("Found " + paths.size() + " new duplicates!")
 			       .setLargeIcon(orientedBitmap)
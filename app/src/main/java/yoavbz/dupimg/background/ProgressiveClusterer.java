@@ -0,0 +1,72 @@
+package yoavbz.dupimg.background;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.apache.commons.math3.ml.clustering.Cluster;
+import org.apache.commons.math3.ml.clustering.DBSCANClusterer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import yoavbz.dupimg.Image;
+
+import static yoavbz.dupimg.MainActivity.TAG;
+
+/**
+ * Periodically clusters the images processed so far, so partial clusters can be shown while a scan is running.
+ * The interval grows with the clustering duration, so re-clustering never dominates the scan itself.
+ */
+class ProgressiveClusterer {
+
+	private static final long MIN_INTERVAL_MS = 2000;
+	private static final int INTERVAL_FACTOR = 5;
+
+	private final DBSCANClusterer<Image> clusterer;
+	private final OnClustersFormedListener listener;
+	private final List<Image> processed = new ArrayList<>();
+	private int lastClusteredCount = 0;
+	private long nextClustering;
+
+	/**
+	 * @param clusterer The clusterer to cluster by
+	 * @param listener  The listener to push the partial clusters to, called from the adding thread
+	 */
+	ProgressiveClusterer(@NonNull DBSCANClusterer<Image> clusterer, @NonNull OnClustersFormedListener listener) {
+		this.clusterer = clusterer;
+		this.listener = listener;
+		nextClustering = SystemClock.uptimeMillis() + MIN_INTERVAL_MS;
+	}
+
+	/**
+	 * Adds a processed image, clustering all the processed images if the interval has passed
+	 */
+	void add(@NonNull Image image) {
+		processed.add(image);
+		long now = SystemClock.uptimeMillis();
+		if (now < nextClustering || processed.size() == lastClusteredCount) {
+			return;
+		}
+		List<Cluster<Image>> clusters = clusterer.cluster(processed);
+		long duration = SystemClock.uptimeMillis() - now;
+		lastClusteredCount = processed.size();
+		nextClustering = now + duration + Math.max(MIN_INTERVAL_MS, duration * INTERVAL_FACTOR);
+		Log.d(TAG, "ProgressiveClusterer: Clustered " + lastClusteredCount + " images into " + clusters.size() +
+				" clusters in " + duration + "ms");
+		if (!clusters.isEmpty()) {
+			// Showing the recent clusters first
+			clusters.sort((cluster1, cluster2) -> Long.compare(cluster2.getPoints().get(0).getDateTaken(),
+			                                                   cluster1.getPoints().get(0).getDateTaken()));
+			listener.onClustersFormed(clusters);
+		}
+	}
+
+	interface OnClustersFormedListener {
+		/**
+		 * @param clusters The partial clusters, sorted newest first
+		 */
+		void onClustersFormed(@NonNull List<Cluster<Image>> clusters);
+	}
+}
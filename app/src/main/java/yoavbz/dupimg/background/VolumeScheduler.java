@@ -0,0 +1,137 @@
+package yoavbz.dupimg.background;
+
+import android.content.Context;
+import android.os.Environment;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import hendrawd.storageutil.library.StorageUtil;
+
+import static yoavbz.dupimg.MainActivity.TAG;
+
+/**
+ * Schedules file system I/O per storage volume, so a slow removable volume (e.g. an SD card) doesn't stall
+ * the reads from the internal storage.
+ * Each volume has its own pool, with a low queue depth for removable volumes and a higher one for internal storage.
+ */
+public class VolumeScheduler {
+
+	// Listing and reading are I/O bound, so internal storage is allowed to have more threads than cores
+	private static final int INTERNAL_QUEUE_DEPTH = Runtime.getRuntime().availableProcessors() * 2;
+	private static final int REMOVABLE_QUEUE_DEPTH = 2;
+	private static VolumeScheduler INSTANCE;
+
+	// Sorted by descending root length, so the first matching volume is the most specific one
+	private final List<Volume> volumes = new ArrayList<>();
+	private final Volume primary;
+
+	private VolumeScheduler(@NonNull Context context) {
+		primary = new Volume(Environment.getExternalStorageDirectory().getAbsolutePath(), false);
+		volumes.add(primary);
+		for (String dir : StorageUtil.getStorageDirectories(context)) {
+			String root = new File(dir).getAbsolutePath();
+			if (!root.equals(primary.root)) {
+				volumes.add(new Volume(root, isRemovable(root)));
+			}
+		}
+		volumes.sort((volume1, volume2) -> Integer.compare(volume2.root.length(), volume1.root.length()));
+		Log.d(TAG, "VolumeScheduler: Found " + volumes.size() + " storage volumes");
+	}
+
+	public static synchronized VolumeScheduler getInstance(@NonNull Context context) {
+		if (INSTANCE == null) {
+			INSTANCE = new VolumeScheduler(context.getApplicationContext());
+		}
+		return INSTANCE;
+	}
+
+	private static boolean isRemovable(@NonNull String root) {
+		try {
+			return Environment.isExternalStorageRemovable(new File(root));
+		} catch (IllegalArgumentException e) {
+			// Not a known storage device, assuming the worst
+			return true;
+		}
+	}
+
+	/**
+	 * @return The pool of the volume containing the given path (the primary volume's if unknown)
+	 */
+	@NonNull
+	ForkJoinPool getPool(@NonNull String path) {
+		return getVolume(path).pool;
+	}
+
+	/**
+	 * Runs the given action on each path, concurrently on each path's volume pool.
+	 * Within each volume, the paths are submitted ordered by directory, so access stays mostly sequential.
+	 * Should be called from a background thread.
+	 *
+	 * @param paths  The file paths
+	 * @param action The action to run, may abort the remaining actions by throwing an unchecked exception,
+	 *               which is rethrown here
+	 */
+	public void forEach(@NonNull Collection<String> paths, @NonNull PathAction action) {
+		Map<Volume, List<String>> byVolume = new LinkedHashMap<>();
+		for (String path : paths) {
+			byVolume.computeIfAbsent(getVolume(path), volume -> new ArrayList<>()).add(path);
+		}
+		Comparator<String> byDirectory = Comparator.comparing((String path) -> new File(path).getParent(),
+		                                                      Comparator.nullsFirst(Comparator.naturalOrder()))
+		                                           .thenComparing(Comparator.naturalOrder());
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for (Map.Entry<Volume, List<String>> entry : byVolume.entrySet()) {
+			List<String> volumePaths = entry.getValue();
+			volumePaths.sort(byDirectory);
+			for (String path : volumePaths) {
+				tasks.add(entry.getKey().pool.submit(() -> action.run(path)));
+			}
+		}
+		try {
+			for (ForkJoinTask<?> task : tasks) {
+				task.join();
+			}
+		} catch (RuntimeException e) {
+			for (ForkJoinTask<?> task : tasks) {
+				task.cancel(false);
+			}
+			throw e;
+		}
+	}
+
+	@NonNull
+	private Volume getVolume(@NonNull String path) {
+		for (Volume volume : volumes) {
+			if (path.equals(volume.root) || path.startsWith(volume.root + File.separator)) {
+				return volume;
+			}
+		}
+		return primary;
+	}
+
+	public interface PathAction {
+		void run(@NonNull String path);
+	}
+
+	private static class Volume {
+
+		private final String root;
+		private final ForkJoinPool pool;
+
+		Volume(@NonNull String root, boolean removable) {
+			this.root = root;
+			pool = new ForkJoinPool(removable ? REMOVABLE_QUEUE_DEPTH : INTERNAL_QUEUE_DEPTH);
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package yoavbz.dupimg.database;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import java.util.Collection;
+import java.util.List;
+
+@Dao
+public abstract class DirectoryDao {
+
+	@Insert(onConflict = OnConflictStrategy.REPLACE)
+	public abstract void insert(Collection<DirectoryEntry> entries);
+
+	@Query("DELETE FROM directories WHERE path = :path")
+	public abstract void delete(String path);
+
+	@Query("SELECT * FROM directories")
+	public abstract List<DirectoryEntry> getAll();
+
+	/**
+	 * Updates the stored manifest with the directories of the last scan
+	 *
+	 * @param entries    The directories visited on the last scan, inserted or replaced
+	 * @param stalePaths The stored directories which weren't visited under the walked roots, deleted
+	 */
+	@Transaction
+	public void update(Collection<DirectoryEntry> entries, Collection<String> stalePaths) {
+		for (String path : stalePaths) {
+			delete(path);
+		}
+		insert(entries);
+	}
+}
@@ -0,0 +1,63 @@
+package yoavbz.dupimg.database;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * A scanned directory state, used for skipping unchanged directories on rescan
+ */
+@Entity(tableName = "directories")
+public class DirectoryEntry {
+
+	@PrimaryKey
+	@NonNull
+	private String path;
+	@Nullable
+	private String parent;
+	private long lastModified;
+	// The number of images found directly under the directory
+	private int childCount;
+
+	public DirectoryEntry(@NonNull String path, @Nullable String parent, long lastModified, int childCount) {
+		this.path = path;
+		this.parent = parent;
+		this.lastModified = lastModified;
+		this.childCount = childCount;
+	}
+
+	@NonNull
+	public String getPath() {
+		return path;
+	}
+
+	public void setPath(@NonNull String path) {
+		this.path = path;
+	}
+
+	@Nullable
+	public String getParent() {
+		return parent;
+	}
+
+	public void setParent(@Nullable String parent) {
+		this.parent = parent;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public void setLastModified(long lastModified) {
+		this.lastModified = lastModified;
+	}
+
+	public int getChildCount() {
+		return childCount;
+	}
+
+	public void setChildCount(int childCount) {
+		this.childCount = childCount;
+	}
+}
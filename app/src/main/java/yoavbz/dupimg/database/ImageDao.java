@@ -7,7 +7,9 @@ import androidx.room.Query;
 import androidx.room.Transaction;
 import androidx.room.Update;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import yoavbz.dupimg.Image;
 
@@ -26,11 +28,20 @@ public abstract class ImageDao {
 	@Query("SELECT * FROM images ORDER BY dateTaken ASC")
 	public abstract List<Image> getAll();
 
-	@Query("SELECT path FROM images WHERE path IN (:paths) ORDER BY dateTaken ASC")
-	public abstract List<String> getByPaths(List<String> paths);
+	@Query("SELECT * FROM images WHERE fingerprint = :fingerprint LIMIT 1")
+	public abstract Image getByFingerprint(String fingerprint);
+
+	/**
+	 * @return The paths of the images classified by their EXIF thumbnail, which may be refined
+	 */
+	@Query("SELECT path FROM images WHERE thumbnailDecoded = 1")
+	public abstract List<String> getThumbnailDecodedPaths();
+
+	@Query("SELECT * FROM images WHERE path IN (:paths) ORDER BY dateTaken ASC")
+	public abstract List<Image> getByPaths(List<String> paths);
 
 	@Transaction
-	public boolean deleteNotInList(List<String> localImages) {
+	public boolean deleteNotInList(Collection<String> localImages) {
 		boolean deleted = false;
 		for (String path : getAllPaths()) {
 			if (!localImages.contains(path)) {
@@ -43,4 +54,33 @@ public abstract class ImageDao {
 
 	@Query("SELECT path FROM images ORDER BY dateTaken DESC")
 	public abstract List<String> getAllPaths();
+
+	@Query("SELECT fingerprint FROM images WHERE path = :path")
+	public abstract String getFingerprint(String path);
+
+	@Query("UPDATE images SET fingerprint = :fingerprint WHERE path = :path")
+	public abstract void setFingerprint(String path, String fingerprint);
+
+	@Query("SELECT path, fingerprint FROM images WHERE fingerprint IS NOT NULL")
+	public abstract List<StoredFingerprint> getFingerprints();
+
+	@Query("UPDATE images SET path = :newPath WHERE path = :oldPath")
+	public abstract void updatePath(String oldPath, String newPath);
+
+	/**
+	 * Re-keys moved images in place, keeping their feature vectors and dates
+	 *
+	 * @param moves The old paths, mapped to their new paths
+	 */
+	@Transaction
+	public void relocate(Map<String, String> moves) {
+		for (Map.Entry<String, String> move : moves.entrySet()) {
+			updatePath(move.getKey(), move.getValue());
+		}
+	}
+
+	public static class StoredFingerprint {
+		public String path;
+		public String fingerprint;
+	}
 }
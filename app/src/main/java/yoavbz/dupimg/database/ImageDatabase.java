@@ -1,28 +1,78 @@
 package yoavbz.dupimg.database;
 
 import android.content.Context;
+import androidx.annotation.NonNull;
 import androidx.room.*;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 import yoavbz.dupimg.Image;
 
 import java.util.Arrays;
 import java.util.stream.Collectors;
 
-@Database(entities = Image.class, version = 1, exportSchema = false)
+@Database(entities = {Image.class, DirectoryEntry.class, JournalEntry.class}, version = 6, exportSchema = false)
 @TypeConverters(ImageDatabase.Converters.class)
 public abstract class ImageDatabase extends RoomDatabase {
 
+	private static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+		@Override
+		public void migrate(@NonNull SupportSQLiteDatabase database) {
+			database.execSQL("CREATE TABLE IF NOT EXISTS `directories` (`path` TEXT NOT NULL, `parent` TEXT, " +
+					                 "`lastModified` INTEGER NOT NULL, `childCount` INTEGER NOT NULL, " +
+					                 "PRIMARY KEY(`path`))");
+		}
+	};
+
+	private static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+		@Override
+		public void migrate(@NonNull SupportSQLiteDatabase database) {
+			database.execSQL("ALTER TABLE `images` ADD COLUMN `fingerprint` TEXT");
+			database.execSQL("CREATE INDEX IF NOT EXISTS `index_images_fingerprint` ON `images` (`fingerprint`)");
+		}
+	};
+
+	private static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+		@Override
+		public void migrate(@NonNull SupportSQLiteDatabase database) {
+			database.execSQL("CREATE TABLE IF NOT EXISTS `journal` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+					                 "`path` TEXT NOT NULL, `event` INTEGER NOT NULL)");
+		}
+	};
+
+	private static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+		@Override
+		public void migrate(@NonNull SupportSQLiteDatabase database) {
+			database.execSQL("ALTER TABLE `images` ADD COLUMN `thumbnailDecoded` INTEGER NOT NULL DEFAULT 0");
+		}
+	};
+
+	private static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+		@Override
+		public void migrate(@NonNull SupportSQLiteDatabase database) {
+			for (String column : new String[]{"orientation", "width", "height", "fileSize", "lastModified"}) {
+				database.execSQL("ALTER TABLE `images` ADD COLUMN `" + column + "` INTEGER NOT NULL DEFAULT 0");
+			}
+		}
+	};
+
 	private static ImageDatabase INSTANCE;
 
 	public static ImageDatabase getAppDatabase(Context context) {
 		if (INSTANCE == null) {
 			INSTANCE = Room.databaseBuilder(context.getApplicationContext(), ImageDatabase.class,
-			                                "image-database.db").build();
+			                                "image-database.db")
+			               .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6)
+			               .build();
 		}
 		return INSTANCE;
 	}
 
 	public abstract ImageDao imageDao();
 
+	public abstract DirectoryDao directoryDao();
+
+	public abstract JournalDao journalDao();
+
 	@SuppressWarnings("WeakerAccess")
 	static class Converters {
 
@@ -36,4 +86,4 @@ public abstract class ImageDatabase extends RoomDatabase {
 			return Arrays.stream(str.split(",")).mapToDouble(Double::parseDouble).toArray();
 		}
 	}
-}
\ No newline at end of file
+}
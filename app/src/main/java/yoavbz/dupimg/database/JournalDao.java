@@ -0,0 +1,39 @@
+package yoavbz.dupimg.database;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import java.util.List;
+
+@Dao
+public abstract class JournalDao {
+
+	/**
+	 * @return The id of the inserted entry
+	 */
+	@Insert
+	public abstract long insert(JournalEntry entry);
+
+	@Query("SELECT * FROM journal ORDER BY id ASC")
+	public abstract List<JournalEntry> getAll();
+
+	@Query("DELETE FROM journal WHERE id <= :id")
+	public abstract void deleteUpTo(long id);
+
+	@Query("DELETE FROM journal")
+	public abstract void deleteAll();
+
+	@Query("SELECT MIN(id) FROM journal")
+	public abstract long getFirstId();
+
+	/**
+	 * Replaces all the entries by a gap, as a journal with a gap is only used for its ids
+	 */
+	@Transaction
+	public void replaceWithGap(String path) {
+		deleteAll();
+		insert(new JournalEntry(path, JournalEntry.EVENT_GAP));
+	}
+}
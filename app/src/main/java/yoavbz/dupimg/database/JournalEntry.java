@@ -0,0 +1,55 @@
+package yoavbz.dupimg.database;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * A file system change, observed while the app process was alive
+ */
+@Entity(tableName = "journal")
+public class JournalEntry {
+
+	// The file was created, written or moved in
+	public static final int EVENT_ADDED = 1;
+	// The file was deleted or moved out
+	public static final int EVENT_REMOVED = 2;
+	// Changes may have been missed (e.g. the process was dead, or a whole directory was moved in or out)
+	public static final int EVENT_GAP = 3;
+
+	@PrimaryKey(autoGenerate = true)
+	private long id;
+	@NonNull
+	private String path;
+	private int event;
+
+	public JournalEntry(@NonNull String path, int event) {
+		this.path = path;
+		this.event = event;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	@NonNull
+	public String getPath() {
+		return path;
+	}
+
+	public void setPath(@NonNull String path) {
+		this.path = path;
+	}
+
+	public int getEvent() {
+		return event;
+	}
+
+	public void setEvent(int event) {
+		this.event = event;
+	}
+}
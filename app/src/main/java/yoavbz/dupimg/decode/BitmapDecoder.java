@@ -0,0 +1,150 @@
+package yoavbz.dupimg.decode;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Decodes images subsampled close to a target resolution, instead of at their full resolution.
+ * The image bounds are read first, so the sample size is picked before any pixel is allocated,
+ * and the peak memory of a single decode is bounded by a configurable budget.
+ * Decoded bitmaps reuse the allocations of {@link BitmapPool}, and should be returned to it when no longer needed.
+ */
+public class BitmapDecoder {
+
+	private static final int BYTES_PER_PIXEL = 4;
+	private static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+	private static volatile long maxBytes = Math.min(DEFAULT_MAX_BYTES, Runtime.getRuntime().maxMemory() / 16);
+
+	/**
+	 * @return The maximal number of bytes a single decoded bitmap may take
+	 */
+	public static long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @param maxBytes The maximal number of bytes a single decoded bitmap may take
+	 */
+	public static void setMaxBytes(long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+		}
+		BitmapDecoder.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @param path       The image path
+	 * @param targetSize The minimal width and height the decoded bitmap should have (unless it's smaller,
+	 *                   or exceeds the memory budget)
+	 * @return The image bitmap (mutable), subsampled by the largest power of two keeping it at least
+	 * targetSize pixels
+	 * @throws IOException              If the image couldn't be decoded
+	 * @throws IllegalArgumentException If targetSize isn't positive
+	 */
+	@NonNull
+	public static Bitmap decodeSampled(@NonNull String path, int targetSize) throws IOException {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(path, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			throw new IOException("Couldn't read the bounds of " + path);
+		}
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = computeSampleSize(options.outWidth, options.outHeight, targetSize, maxBytes);
+		return decodeReusing(options, opts -> BitmapFactory.decodeFile(path, opts), path);
+	}
+
+	/**
+	 * Same as {@link #decodeSampled(String, int)}, decoding the already read image file
+	 *
+	 * @param data The image file content
+	 */
+	@NonNull
+	public static Bitmap decodeSampled(@NonNull byte[] data, int targetSize) throws IOException {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			throw new IOException("Couldn't read the bounds of the image data");
+		}
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = computeSampleSize(options.outWidth, options.outHeight, targetSize, maxBytes);
+		return decodeReusing(options, opts -> BitmapFactory.decodeByteArray(data, 0, data.length, opts),
+		                     "the image data");
+	}
+
+	/**
+	 * Decodes compressed image data (e.g. an embedded thumbnail) into a pooled bitmap
+	 *
+	 * @return The mutable bitmap
+	 * @throws IOException If the data couldn't be decoded
+	 */
+	@NonNull
+	public static Bitmap decodeByteArray(@NonNull byte[] data) throws IOException {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			throw new IOException("Couldn't read the bounds of the image data");
+		}
+		options.inJustDecodeBounds = false;
+		return decodeReusing(options, opts -> BitmapFactory.decodeByteArray(data, 0, data.length, opts),
+		                     "the image data");
+	}
+
+	/**
+	 * Decodes into a pooled bitmap that fits the (sampled) bounds, falling back to a new allocation if the
+	 * pooled bitmap can't be decoded into
+	 */
+	@NonNull
+	private static Bitmap decodeReusing(@NonNull BitmapFactory.Options options, @NonNull Decoder decoder,
+	                                    @NonNull String source) throws IOException {
+		int sampleSize = options.inSampleSize;
+		// Rounding up, as decoders may round the sampled dimensions up
+		int width = (options.outWidth + sampleSize - 1) / sampleSize;
+		int height = (options.outHeight + sampleSize - 1) / sampleSize;
+		options.inMutable = true;
+		options.inBitmap = BitmapPool.getInstance().getReusable(width, height, Bitmap.Config.ARGB_8888);
+		Bitmap bitmap;
+		try {
+			bitmap = decoder.decode(options);
+		} catch (IllegalArgumentException e) {
+			BitmapPool.getInstance().put(options.inBitmap);
+			options.inBitmap = null;
+			bitmap = decoder.decode(options);
+		}
+		if (bitmap == null) {
+			BitmapPool.getInstance().put(options.inBitmap);
+			throw new IOException("Couldn't decode " + source);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * @return The largest power of two sample size keeping both dimensions at least targetSize pixels,
+	 * increased as needed to fit in maxBytes
+	 * @throws IllegalArgumentException If targetSize isn't positive
+	 */
+	static int computeSampleSize(int width, int height, int targetSize, long maxBytes) {
+		if (targetSize <= 0) {
+			throw new IllegalArgumentException("targetSize must be positive: " + targetSize);
+		}
+		int sampleSize = 1;
+		while (Math.min(width, height) / (sampleSize * 2) >= targetSize) {
+			sampleSize *= 2;
+		}
+		while ((long) (width / sampleSize) * (height / sampleSize) * BYTES_PER_PIXEL > maxBytes) {
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+
+	private interface Decoder {
+		Bitmap decode(@NonNull BitmapFactory.Options options);
+	}
+}
@@ -0,0 +1,174 @@
+package yoavbz.dupimg.decode;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+import static yoavbz.dupimg.MainActivity.TAG;
+
+/**
+ * A pool of mutable bitmaps, bucketed by their allocation size (rounded up to a power of two), for reusing
+ * bitmap allocations across decodes, either through {@link android.graphics.BitmapFactory.Options#inBitmap}
+ * or by {@link Bitmap#reconfigure reconfiguring} them as scaling targets.
+ * Bitmaps handed out must not be used after they're returned by {@link #put(Bitmap)}.
+ * <p>
+ * When the retained bytes exceed the limit, the least recently returned bitmaps are evicted.
+ */
+public class BitmapPool {
+
+	private static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+	private static final BitmapPool INSTANCE = new BitmapPool(
+			Math.min(DEFAULT_MAX_BYTES, Runtime.getRuntime().maxMemory() / 16));
+
+	private final Map<Integer, Deque<Bitmap>> buckets = new HashMap<>();
+	// All the pooled bitmaps, least recently returned first
+	private final Deque<Bitmap> lru = new ArrayDeque<>();
+	private long maxBytes;
+	private long retainedBytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+
+	private BitmapPool(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	@NonNull
+	public static BitmapPool getInstance() {
+		return INSTANCE;
+	}
+
+	private static int getBucket(long byteCount) {
+		return 64 - Long.numberOfLeadingZeros(Math.max(byteCount - 1, 1));
+	}
+
+	/**
+	 * Takes a pooled bitmap that can hold the given dimensions, reconfigured to them
+	 *
+	 * @return The reconfigured bitmap, or null on a pool miss
+	 */
+	@Nullable
+	public synchronized Bitmap getReusable(int width, int height, @NonNull Bitmap.Config config) {
+		long byteCount = (long) width * height * getBytesPerPixel(config);
+		int bucket = getBucket(byteCount);
+		// Looking one bucket up as well, so slightly larger bitmaps are reused too
+		for (int i = bucket; i <= bucket + 1; i++) {
+			Deque<Bitmap> bitmaps = buckets.get(i);
+			if (bitmaps == null) {
+				continue;
+			}
+			Iterator<Bitmap> iterator = bitmaps.iterator();
+			while (iterator.hasNext()) {
+				Bitmap bitmap = iterator.next();
+				if (bitmap.getAllocationByteCount() >= byteCount) {
+					iterator.remove();
+					lru.remove(bitmap);
+					retainedBytes -= bitmap.getAllocationByteCount();
+					bitmap.reconfigure(width, height, config);
+					hits++;
+					return bitmap;
+				}
+			}
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Same as {@link #getReusable}, allocating a new bitmap on a pool miss
+	 */
+	@NonNull
+	public Bitmap get(int width, int height, @NonNull Bitmap.Config config) {
+		Bitmap bitmap = getReusable(width, height, config);
+		return bitmap != null ? bitmap : Bitmap.createBitmap(width, height, config);
+	}
+
+	/**
+	 * Returns a bitmap to the pool. Immutable and recycled bitmaps are recycled instead.
+	 */
+	public synchronized void put(@Nullable Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled()) {
+			return;
+		}
+		if (!bitmap.isMutable() || bitmap.getAllocationByteCount() > maxBytes) {
+			bitmap.recycle();
+			return;
+		}
+		if (lru.contains(bitmap)) {
+			return;
+		}
+		buckets.computeIfAbsent(getBucket(bitmap.getAllocationByteCount()), bucket -> new ArrayDeque<>())
+		       .add(bitmap);
+		lru.add(bitmap);
+		retainedBytes += bitmap.getAllocationByteCount();
+		trimTo(maxBytes);
+	}
+
+	/**
+	 * Evicts the least recently returned bitmaps, until the retained bytes fit the given size
+	 */
+	public synchronized void trimTo(long bytes) {
+		while (retainedBytes > bytes && !lru.isEmpty()) {
+			Bitmap bitmap = lru.poll();
+			Deque<Bitmap> bitmaps = buckets.get(getBucket(bitmap.getAllocationByteCount()));
+			if (bitmaps != null) {
+				bitmaps.remove(bitmap);
+			}
+			retainedBytes -= bitmap.getAllocationByteCount();
+			bitmap.recycle();
+		}
+	}
+
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		trimTo(maxBytes);
+	}
+
+	/**
+	 * @return The number of bytes currently retained by the pooled bitmaps
+	 */
+	public synchronized long getRetainedBytes() {
+		return retainedBytes;
+	}
+
+	/**
+	 * @return The fraction of requests served by a pooled bitmap, 0 if there were no requests
+	 */
+	public synchronized double getHitRate() {
+		long requests = hits + misses;
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	public void logStats() {
+		Log.d(TAG, "BitmapPool: " + this);
+	}
+
+	@NonNull
+	@Override
+	public synchronized String toString() {
+		return String.format(Locale.ENGLISH, "%d hits, %d misses (%.1f%%), %d bitmaps retaining %d KB",
+		                     hits, misses, getHitRate() * 100, lru.size(), retainedBytes / 1024);
+	}
+
+	private static int getBytesPerPixel(@NonNull Bitmap.Config config) {
+		switch (config) {
+			case ALPHA_8:
+				return 1;
+			case RGB_565:
+			case ARGB_4444:
+				return 2;
+			case RGBA_F16:
+				return 8;
+			default:
+				return 4;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package yoavbz.dupimg.decode;
+
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Image formats, sniffed by the magic bytes at the beginning of the file rather than by the file extension
+ */
+public enum ImageFormat {
+	JPEG,
+	PNG,
+	WEBP,
+	HEIC,
+	UNKNOWN;
+
+	// The number of bytes needed for sniffing all the supported formats
+	public static final int HEADER_SIZE = 12;
+	private static final String[] EXTENSIONS = {".jpg", ".jpeg", ".png", ".webp", ".heic", ".heif"};
+	private static final String[] HEIF_BRANDS = {"heic", "heix", "heim", "heis", "hevc", "hevx", "mif1", "msf1"};
+
+	/**
+	 * A cheap pre-filter for the files worth sniffing
+	 *
+	 * @param name The file name
+	 * @return true if the file has one of the image extensions, ignoring case
+	 */
+	public static boolean hasImageExtension(@NonNull String name) {
+		String lowerCase = name.toLowerCase(Locale.ENGLISH);
+		for (String extension : EXTENSIONS) {
+			if (lowerCase.endsWith(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads only the first {@link #HEADER_SIZE} bytes of the given file to detect its format
+	 *
+	 * @param file The file to sniff
+	 * @return The file format, {@link #UNKNOWN} if it is unrecognized, unreadable or too short
+	 */
+	@NonNull
+	public static ImageFormat sniff(@NonNull File file) {
+		try (InputStream in = new FileInputStream(file)) {
+			return sniff(in);
+		} catch (IOException e) {
+			return UNKNOWN;
+		}
+	}
+
+	/**
+	 * Reads the first {@link #HEADER_SIZE} bytes of the given stream to detect its format
+	 *
+	 * @param in The stream to sniff, positioned at the beginning of the image
+	 * @return The stream format, {@link #UNKNOWN} if it is unrecognized or too short
+	 */
+	@NonNull
+	public static ImageFormat sniff(@NonNull InputStream in) throws IOException {
+		byte[] header = new byte[HEADER_SIZE];
+		int length = 0;
+		int read;
+		while (length < HEADER_SIZE && (read = in.read(header, length, HEADER_SIZE - length)) != -1) {
+			length += read;
+		}
+		return sniff(header, length);
+	}
+
+	/**
+	 * @param header The first bytes of the image
+	 * @param length The number of valid bytes in header
+	 * @return The image format, {@link #UNKNOWN} if it is unrecognized or the header is too short
+	 */
+	@NonNull
+	public static ImageFormat sniff(@NonNull byte[] header, int length) {
+		if (length >= 3 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8 && (header[2] & 0xFF) == 0xFF) {
+			return JPEG;
+		}
+		if (length >= 8 && (header[0] & 0xFF) == 0x89 && matches(header, 1, "PNG") &&
+				header[4] == 0x0D && header[5] == 0x0A && header[6] == 0x1A && header[7] == 0x0A) {
+			return PNG;
+		}
+		if (length >= 12 && matches(header, 0, "RIFF") && matches(header, 8, "WEBP")) {
+			return WEBP;
+		}
+		if (length >= 12 && matches(header, 4, "ftyp")) {
+			for (String brand : HEIF_BRANDS) {
+				if (matches(header, 8, brand)) {
+					return HEIC;
+				}
+			}
+		}
+		return UNKNOWN;
+	}
+
+	private static boolean matches(@NonNull byte[] header, int offset, @NonNull String ascii) {
+		for (int i = 0; i < ascii.length(); i++) {
+			if (header[offset + i] != ascii.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if {@link android.graphics.BitmapFactory} can decode this format on the current device
+	 */
+	public boolean isSupported() {
+		switch (this) {
+			case JPEG:
+			case PNG:
+			case WEBP:
+				return true;
+			case HEIC:
+				return Build.VERSION.SDK_INT >= Build.VERSION_CODES.P;
+			default:
+				return false;
+		}
+	}
+}
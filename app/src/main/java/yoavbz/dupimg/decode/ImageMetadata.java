@@ -0,0 +1,155 @@
+package yoavbz.dupimg.decode;
+
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.exifinterface.media.ExifInterface;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+import static yoavbz.dupimg.MainActivity.TAG;
+
+/**
+ * The metadata of an image file, extracted in a single pass: one stat call for the file size and modification time,
+ * and one EXIF read for the date taken, orientation and pixel dimensions.
+ * Immutable, and extracted without shared mutable state, so it's safe to extract on multiple threads.
+ */
+public class ImageMetadata {
+
+	private static final DateTimeFormatter EXIF_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+
+	private final long dateTaken;
+	private final int orientation;
+	private final int width;
+	private final int height;
+	private final long fileSize;
+	private final long lastModified;
+
+	private ImageMetadata(long dateTaken, int orientation, int width, int height, long fileSize,
+	                      long lastModified) {
+		this.dateTaken = dateTaken;
+		this.orientation = orientation;
+		this.width = width;
+		this.height = height;
+		this.fileSize = fileSize;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Reads the metadata of the given image
+	 */
+	@NonNull
+	public static ImageMetadata read(@NonNull String path) {
+		ExifInterface exif;
+		try {
+			exif = new ExifInterface(path);
+		} catch (IOException e) {
+			Log.e(TAG, "ImageMetadata: Couldn't read the EXIF of " + path, e);
+			exif = null;
+		}
+		return read(path, exif);
+	}
+
+	/**
+	 * Reads the metadata of the given image, using its already read EXIF
+	 *
+	 * @param exif The image EXIF, null if unavailable
+	 */
+	@NonNull
+	public static ImageMetadata read(@NonNull String path, @Nullable ExifInterface exif) {
+		long fileSize = 0;
+		long lastModified = 0;
+		try {
+			StructStat stat = Os.stat(path);
+			fileSize = stat.st_size;
+			lastModified = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1 ?
+					stat.st_mtim.tv_sec * 1000 + stat.st_mtim.tv_nsec / 1_000_000 : stat.st_mtime * 1000;
+		} catch (ErrnoException e) {
+			Log.e(TAG, "ImageMetadata: Couldn't stat " + path, e);
+		}
+		int orientation = 0;
+		int width = 0;
+		int height = 0;
+		long dateTaken = 0;
+		if (exif != null) {
+			orientation = exif.getRotationDegrees();
+			width = exif.getAttributeInt(ExifInterface.TAG_PIXEL_X_DIMENSION, 0);
+			height = exif.getAttributeInt(ExifInterface.TAG_PIXEL_Y_DIMENSION, 0);
+			if (width <= 0 || height <= 0) {
+				width = exif.getAttributeInt(ExifInterface.TAG_IMAGE_WIDTH, 0);
+				height = exif.getAttributeInt(ExifInterface.TAG_IMAGE_LENGTH, 0);
+			}
+			dateTaken = parseDate(exif.getAttribute(ExifInterface.TAG_DATETIME_ORIGINAL));
+		}
+		if (width <= 0 || height <= 0) {
+			// No dimensions in the EXIF, decoding the bounds instead
+			BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inJustDecodeBounds = true;
+			BitmapFactory.decodeFile(path, options);
+			width = Math.max(options.outWidth, 0);
+			height = Math.max(options.outHeight, 0);
+		}
+		if (dateTaken == 0) {
+			// Fallback - the file modification time
+			dateTaken = lastModified;
+		}
+		return new ImageMetadata(dateTaken, orientation, width, height, fileSize, lastModified);
+	}
+
+	/**
+	 * @return The given EXIF date in milliseconds (in the default time zone), 0 if missing or invalid
+	 */
+	private static long parseDate(@Nullable String date) {
+		if (date == null) {
+			return 0;
+		}
+		try {
+			return LocalDateTime.parse(date.trim(), EXIF_DATE_FORMAT)
+			                    .atZone(ZoneId.systemDefault())
+			                    .toInstant()
+			                    .toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @return The EXIF DATETIME_ORIGINAL, or the modification time if unavailable
+	 */
+	public long getDateTaken() {
+		return dateTaken;
+	}
+
+	/**
+	 * @return The clockwise rotation (in degrees) needed for displaying the image upright
+	 */
+	public int getOrientation() {
+		return orientation;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+}
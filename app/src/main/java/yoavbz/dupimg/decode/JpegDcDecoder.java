@@ -0,0 +1,729 @@
+package yoavbz.dupimg.decode;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A pure-Java JPEG decoder producing the image at 1/8 scale, by keeping only the DC coefficient of each 8x8 block
+ * (which is the block mean), so no IDCT is needed at all.
+ * Supports baseline and progressive Huffman-coded 8-bit JPEGs, either grayscale or YCbCr (any subsampling).
+ * The AC coefficients of baseline scans are entropy-decoded only to be skipped, and the AC scans of progressive
+ * JPEGs are skipped without decoding.
+ * <p>
+ * Has no Android dependencies, so it can be tested and benchmarked on a plain JVM.
+ */
+public class JpegDcDecoder {
+
+	private static final int SOI = 0xD8;
+	private static final int EOI = 0xD9;
+	private static final int SOS = 0xDA;
+	private static final int DQT = 0xDB;
+	private static final int DHT = 0xC4;
+	private static final int DRI = 0xDD;
+	private static final int APP14 = 0xEE;
+	private static final int RST0 = 0xD0;
+	private static final int RST7 = 0xD7;
+
+	private final byte[] data;
+	private final int length;
+	private int pos;
+
+	private final int[] dcQuant = new int[4];
+	private final Huffman[] dcTables = new Huffman[4];
+	private final Huffman[] acTables = new Huffman[4];
+	private int restartInterval = 0;
+	private int adobeTransform = -1;
+
+	private boolean progressive;
+	private int width;
+	private int height;
+	private int mcusX;
+	private int mcusY;
+	private Component[] components;
+	private boolean decodedScan = false;
+
+	// Entropy-coded data bit reader
+	private long bitBuffer;
+	private int bitCount;
+
+	private JpegDcDecoder(@NonNull byte[] data, int length) {
+		this.data = data;
+		this.length = length;
+	}
+
+	/**
+	 * @param file The JPEG file
+	 * @return The image at 1/8 scale (rounded up)
+	 * @throws IOException If the file couldn't be read, or isn't a supported JPEG
+	 */
+	@NonNull
+	public static DcImage decode(@NonNull File file) throws IOException {
+		try (InputStream in = new FileInputStream(file)) {
+			return decode(in);
+		}
+	}
+
+	/**
+	 * @param in The JPEG stream, read to its end
+	 * @return The image at 1/8 scale (rounded up)
+	 * @throws IOException If the stream couldn't be read, or isn't a supported JPEG
+	 */
+	@NonNull
+	public static DcImage decode(@NonNull InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 64 * 1024));
+		byte[] buffer = new byte[64 * 1024];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		byte[] data = out.toByteArray();
+		return decode(data, data.length);
+	}
+
+	/**
+	 * @param data   The JPEG data
+	 * @param length The number of valid bytes in data
+	 * @return The image at 1/8 scale (rounded up)
+	 * @throws IOException If the data isn't a supported JPEG
+	 */
+	@NonNull
+	public static DcImage decode(@NonNull byte[] data, int length) throws IOException {
+		try {
+			return new JpegDcDecoder(data, length).decode();
+		} catch (IndexOutOfBoundsException e) {
+			// Corrupt data referencing blocks or values that don't exist
+			throw new IOException("Corrupt JPEG", e);
+		}
+	}
+
+	@NonNull
+	private DcImage decode() throws IOException {
+		if (length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != SOI) {
+			throw new IOException("Not a JPEG");
+		}
+		pos = 2;
+		int marker;
+		while ((marker = nextMarker()) != -1 && marker != EOI) {
+			switch (marker) {
+				case SOI:
+					break;
+				case DQT:
+					readQuantizationTables();
+					break;
+				case DHT:
+					readHuffmanTables();
+					break;
+				case DRI:
+					readUnsigned16();
+					restartInterval = readUnsigned16();
+					break;
+				case APP14:
+					readAdobeSegment();
+					break;
+				case 0xC0:
+				case 0xC1:
+					readFrame(false);
+					break;
+				case 0xC2:
+					readFrame(true);
+					break;
+				case 0xC3:
+				case 0xC5:
+				case 0xC6:
+				case 0xC7:
+				case 0xC9:
+				case 0xCA:
+				case 0xCB:
+				case 0xCD:
+				case 0xCE:
+				case 0xCF:
+					throw new IOException("Unsupported JPEG process: SOF" + (marker - 0xC0));
+				case SOS:
+					readScan();
+					break;
+				default:
+					skipSegment();
+			}
+		}
+		// Truncated files are decoded as far as they go
+		if (components == null || !decodedScan) {
+			throw new IOException("No image data");
+		}
+		return toImage();
+	}
+
+	/**
+	 * Skips to the next marker, past any entropy-coded data
+	 *
+	 * @return The marker code, or -1 at the end of the data
+	 */
+	private int nextMarker() {
+		while (pos < length - 1) {
+			if ((data[pos] & 0xFF) != 0xFF) {
+				pos++;
+				continue;
+			}
+			int code = data[pos + 1] & 0xFF;
+			if (code == 0 || code == 0xFF || (code >= RST0 && code <= RST7)) {
+				// Stuffed byte, fill byte or restart marker inside entropy-coded data
+				pos++;
+				continue;
+			}
+			pos += 2;
+			return code;
+		}
+		pos = length;
+		return -1;
+	}
+
+	private int readUnsigned8() throws IOException {
+		if (pos >= length) {
+			throw new IOException("Unexpected end of data");
+		}
+		return data[pos++] & 0xFF;
+	}
+
+	private int readUnsigned16() throws IOException {
+		return (readUnsigned8() << 8) | readUnsigned8();
+	}
+
+	/**
+	 * @return The end position of the current marker segment, whose length is read
+	 */
+	private int readSegmentEnd() throws IOException {
+		int end = pos + readUnsigned16();
+		if (end > length) {
+			throw new IOException("Truncated marker segment");
+		}
+		return end;
+	}
+
+	private void skipSegment() throws IOException {
+		pos = readSegmentEnd();
+	}
+
+	private void readQuantizationTables() throws IOException {
+		int end = readSegmentEnd();
+		while (pos < end) {
+			int info = readUnsigned8();
+			int precision = info >> 4;
+			int id = info & 0x0F;
+			if (id > 3) {
+				throw new IOException("Bad quantization table id: " + id);
+			}
+			// Only the first (DC) value is needed, the tables are stored in zig-zag order
+			dcQuant[id] = precision == 0 ? readUnsigned8() : readUnsigned16();
+			pos += precision == 0 ? 63 : 126;
+		}
+		pos = end;
+	}
+
+	private void readHuffmanTables() throws IOException {
+		int end = readSegmentEnd();
+		while (pos < end) {
+			int info = readUnsigned8();
+			int tableClass = info >> 4;
+			int id = info & 0x0F;
+			if (id > 3 || tableClass > 1) {
+				throw new IOException("Bad Huffman table: " + info);
+			}
+			int[] counts = new int[17];
+			int total = 0;
+			for (int i = 1; i <= 16; i++) {
+				counts[i] = readUnsigned8();
+				total += counts[i];
+			}
+			if (total > 256 || pos + total > end) {
+				throw new IOException("Bad Huffman table size: " + total);
+			}
+			int[] values = new int[total];
+			for (int i = 0; i < total; i++) {
+				values[i] = readUnsigned8();
+			}
+			(tableClass == 0 ? dcTables : acTables)[id] = new Huffman(counts, values);
+		}
+		pos = end;
+	}
+
+	private void readAdobeSegment() throws IOException {
+		int end = readSegmentEnd();
+		if (end - pos >= 12 && data[pos] == 'A' && data[pos + 1] == 'd' && data[pos + 2] == 'o' &&
+				data[pos + 3] == 'b' && data[pos + 4] == 'e') {
+			adobeTransform = data[pos + 11] & 0xFF;
+		}
+		pos = end;
+	}
+
+	private void readFrame(boolean progressive) throws IOException {
+		if (components != null) {
+			throw new IOException("Multiple frames");
+		}
+		int end = readSegmentEnd();
+		int precision = readUnsigned8();
+		if (precision != 8) {
+			throw new IOException("Unsupported sample precision: " + precision);
+		}
+		height = readUnsigned16();
+		width = readUnsigned16();
+		int count = readUnsigned8();
+		if (width == 0 || height == 0) {
+			throw new IOException("Unsupported image size: " + width + "x" + height);
+		}
+		if (count != 1 && count != 3) {
+			throw new IOException("Unsupported component count: " + count);
+		}
+		this.progressive = progressive;
+		components = new Component[count];
+		int maxH = 1;
+		int maxV = 1;
+		for (int i = 0; i < count; i++) {
+			int id = readUnsigned8();
+			int sampling = readUnsigned8();
+			int h = sampling >> 4;
+			int v = sampling & 0x0F;
+			int quant = readUnsigned8();
+			if (h < 1 || h > 4 || v < 1 || v > 4 || quant > 3) {
+				throw new IOException("Bad component: " + id);
+			}
+			components[i] = new Component(id, h, v, quant);
+			maxH = Math.max(maxH, h);
+			maxV = Math.max(maxV, v);
+		}
+		mcusX = (width + 8 * maxH - 1) / (8 * maxH);
+		mcusY = (height + 8 * maxV - 1) / (8 * maxV);
+		for (Component component : components) {
+			component.init(width, height, maxH, maxV, mcusX, mcusY);
+		}
+		pos = end;
+	}
+
+	private void readScan() throws IOException {
+		if (components == null) {
+			throw new IOException("Scan before frame");
+		}
+		int end = readSegmentEnd();
+		int count = readUnsigned8();
+		if (count < 1 || count > components.length) {
+			throw new IOException("Bad scan component count: " + count);
+		}
+		Component[] scanComponents = new Component[count];
+		for (int i = 0; i < count; i++) {
+			int id = readUnsigned8();
+			int tables = readUnsigned8();
+			for (Component component : components) {
+				if (component.id == id) {
+					scanComponents[i] = component;
+				}
+			}
+			if (scanComponents[i] == null) {
+				throw new IOException("Unknown scan component: " + id);
+			}
+			if ((tables >> 4) > 3 || (tables & 0x0F) > 3) {
+				throw new IOException("Bad scan tables: " + tables);
+			}
+			scanComponents[i].dcTable = tables >> 4;
+			scanComponents[i].acTable = tables & 0x0F;
+		}
+		int spectralStart = readUnsigned8();
+		readUnsigned8();
+		int approximation = readUnsigned8();
+		pos = end;
+		if (progressive && spectralStart != 0) {
+			// An AC scan, skipped by nextMarker()
+			return;
+		}
+		decodeScan(scanComponents, approximation >> 4, approximation & 0x0F);
+		decodedScan = true;
+	}
+
+	private void decodeScan(@NonNull Component[] scanComponents, int successiveHigh, int successiveLow)
+			throws IOException {
+		for (Component component : scanComponents) {
+			if (dcTables[component.dcTable] == null && (!progressive || successiveHigh == 0)) {
+				throw new IOException("Missing DC table: " + component.dcTable);
+			}
+			if (!progressive && acTables[component.acTable] == null) {
+				throw new IOException("Missing AC table: " + component.acTable);
+			}
+		}
+		resetDecoder(scanComponents);
+		int mcu = 0;
+		if (scanComponents.length == 1) {
+			// Non-interleaved, every block is an MCU
+			Component component = scanComponents[0];
+			int total = component.scanBlocksX * component.scanBlocksY;
+			for (int row = 0; row < component.scanBlocksY; row++) {
+				for (int col = 0; col < component.scanBlocksX; col++) {
+					decodeBlock(component, row * component.blocksPerLine + col, successiveHigh, successiveLow);
+					if (++mcu < total && restartInterval > 0 && mcu % restartInterval == 0) {
+						restart(scanComponents);
+					}
+				}
+			}
+		} else {
+			int total = mcusX * mcusY;
+			for (int mcuY = 0; mcuY < mcusY; mcuY++) {
+				for (int mcuX = 0; mcuX < mcusX; mcuX++) {
+					for (Component component : scanComponents) {
+						for (int v = 0; v < component.v; v++) {
+							int row = mcuY * component.v + v;
+							for (int h = 0; h < component.h; h++) {
+								decodeBlock(component, row * component.blocksPerLine + mcuX * component.h + h,
+								            successiveHigh, successiveLow);
+							}
+						}
+					}
+					if (++mcu < total && restartInterval > 0 && mcu % restartInterval == 0) {
+						restart(scanComponents);
+					}
+				}
+			}
+		}
+	}
+
+	private void decodeBlock(@NonNull Component component, int index, int successiveHigh, int successiveLow)
+			throws IOException {
+		if (progressive && successiveHigh > 0) {
+			// DC refinement scan, one bit per block
+			if (receive(1) == 1) {
+				component.dc[index] |= 1 << successiveLow;
+			}
+			return;
+		}
+		int size = decodeHuffman(dcTables[component.dcTable]);
+		if (size > 0) {
+			component.predictor += extend(receive(size), size);
+		}
+		component.dc[index] = component.predictor << successiveLow;
+		if (!progressive) {
+			// Skipping the AC coefficients
+			Huffman acTable = acTables[component.acTable];
+			for (int k = 1; k < 64; ) {
+				int rs = decodeHuffman(acTable);
+				int run = rs >> 4;
+				int acSize = rs & 0x0F;
+				if (acSize == 0) {
+					if (run != 15) {
+						break;
+					}
+					k += 16;
+				} else {
+					k += run + 1;
+					receive(acSize);
+				}
+			}
+		}
+	}
+
+	private void resetDecoder(@NonNull Component[] scanComponents) {
+		bitBuffer = 0;
+		bitCount = 0;
+		for (Component component : scanComponents) {
+			component.predictor = 0;
+		}
+	}
+
+	/**
+	 * Skips to the data after the next restart marker, and resets the decoder
+	 */
+	private void restart(@NonNull Component[] scanComponents) throws IOException {
+		while (pos < length - 1) {
+			int code = data[pos + 1] & 0xFF;
+			if ((data[pos] & 0xFF) == 0xFF && code >= RST0 && code <= RST7) {
+				pos += 2;
+				resetDecoder(scanComponents);
+				return;
+			}
+			if ((data[pos] & 0xFF) == 0xFF && code != 0 && code != 0xFF) {
+				// Another marker, the restart marker is missing
+				break;
+			}
+			pos++;
+		}
+		throw new IOException("Missing restart marker");
+	}
+
+	/**
+	 * Fills the bit buffer with at least 32 bits, padding with zeros once a marker is reached
+	 */
+	private void fillBits() {
+		while (bitCount <= 48) {
+			int b = 0;
+			if (pos < length) {
+				b = data[pos] & 0xFF;
+				if (b == 0xFF) {
+					int next = pos + 1 < length ? data[pos + 1] & 0xFF : 0;
+					if (next == 0) {
+						pos += 2;
+					} else {
+						// A marker, which isn't consumed
+						b = 0;
+					}
+				} else {
+					pos++;
+				}
+			}
+			bitBuffer = (bitBuffer << 8) | b;
+			bitCount += 8;
+		}
+	}
+
+	private int receive(int size) {
+		if (bitCount < size) {
+			fillBits();
+		}
+		bitCount -= size;
+		return (int) (bitBuffer >>> bitCount) & ((1 << size) - 1);
+	}
+
+	private static int extend(int value, int size) {
+		return value < (1 << (size - 1)) ? value - (1 << size) + 1 : value;
+	}
+
+	private int decodeHuffman(@NonNull Huffman table) throws IOException {
+		if (bitCount < 16) {
+			fillBits();
+		}
+		int entry = table.lookup[(int) (bitBuffer >>> (bitCount - Huffman.LOOKUP_BITS)) & Huffman.LOOKUP_MASK];
+		if (entry != 0) {
+			bitCount -= entry >> 8;
+			return entry & 0xFF;
+		}
+		for (int size = Huffman.LOOKUP_BITS + 1; size <= 16; size++) {
+			int code = (int) (bitBuffer >>> (bitCount - size)) & ((1 << size) - 1);
+			if (code <= table.maxCode[size]) {
+				bitCount -= size;
+				return table.values[table.valueOffset[size] + code - table.minCode[size]];
+			}
+		}
+		throw new IOException("Bad Huffman code");
+	}
+
+	@NonNull
+	private DcImage toImage() {
+		int outWidth = (width + 7) / 8;
+		int outHeight = (height + 7) / 8;
+		int maxH = 1;
+		int maxV = 1;
+		for (Component component : components) {
+			maxH = Math.max(maxH, component.h);
+			maxV = Math.max(maxV, component.v);
+		}
+		int[][] planes = new int[components.length][];
+		for (int c = 0; c < components.length; c++) {
+			planes[c] = toPlane(components[c], outWidth, outHeight, maxH, maxV);
+		}
+		int[] pixels = new int[outWidth * outHeight];
+		boolean isRgb = components.length == 3 && adobeTransform == 0;
+		for (int i = 0; i < pixels.length; i++) {
+			if (components.length == 1) {
+				int gray = planes[0][i];
+				pixels[i] = (gray << 16) | (gray << 8) | gray;
+			} else if (isRgb) {
+				pixels[i] = (planes[0][i] << 16) | (planes[1][i] << 8) | planes[2][i];
+			} else {
+				pixels[i] = toRgb(planes[0][i], planes[1][i] - 128, planes[2][i] - 128);
+			}
+		}
+		return new DcImage(outWidth, outHeight, pixels);
+	}
+
+	/**
+	 * Converts the DC coefficients of the given component to samples at the output resolution.
+	 * Subsampled components are interpolated bilinearly between their block centers.
+	 */
+	@NonNull
+	private int[] toPlane(@NonNull Component component, int outWidth, int outHeight, int maxH, int maxV) {
+		int quant = dcQuant[component.quantTable];
+		int[] blocks = new int[component.dc.length];
+		for (int i = 0; i < blocks.length; i++) {
+			// The DC coefficient is 8 times the block mean, level-shifted by 128
+			blocks[i] = clamp((component.dc[i] * quant + 1028) >> 3);
+		}
+		int[] x0 = new int[outWidth];
+		int[] x1 = new int[outWidth];
+		int[] xWeight = new int[outWidth];
+		interpolationIndices(component.h, maxH, component.scanBlocksX, x0, x1, xWeight);
+		int[] y0 = new int[outHeight];
+		int[] y1 = new int[outHeight];
+		int[] yWeight = new int[outHeight];
+		interpolationIndices(component.v, maxV, component.scanBlocksY, y0, y1, yWeight);
+		int[] plane = new int[outWidth * outHeight];
+		for (int y = 0; y < outHeight; y++) {
+			int row0 = y0[y] * component.blocksPerLine;
+			int row1 = y1[y] * component.blocksPerLine;
+			for (int x = 0; x < outWidth; x++) {
+				int top = blocks[row0 + x0[x]] * (256 - xWeight[x]) + blocks[row0 + x1[x]] * xWeight[x];
+				int bottom = blocks[row1 + x0[x]] * (256 - xWeight[x]) + blocks[row1 + x1[x]] * xWeight[x];
+				plane[y * outWidth + x] = (top * (256 - yWeight[y]) + bottom * yWeight[y] + (1 << 15)) >> 16;
+			}
+		}
+		return plane;
+	}
+
+	/**
+	 * Maps output positions to the two nearest component blocks (by their centers) and an 8-bit weight of the second
+	 */
+	private static void interpolationIndices(int sampling, int maxSampling, int blocks, @NonNull int[] first,
+	                                         @NonNull int[] second, @NonNull int[] weight) {
+		for (int i = 0; i < first.length; i++) {
+			if (sampling == maxSampling) {
+				first[i] = second[i] = Math.min(i, blocks - 1);
+				continue;
+			}
+			// The output pixel center, in component block units
+			double position = Math.max((i + 0.5) * sampling / maxSampling - 0.5, 0);
+			int index = Math.min((int) position, blocks - 1);
+			first[i] = index;
+			second[i] = Math.min(index + 1, blocks - 1);
+			weight[i] = (int) Math.round((position - (int) position) * 256);
+		}
+	}
+
+	/**
+	 * JFIF YCbCr to RGB conversion, in 16-bit fixed point
+	 */
+	private static int toRgb(int y, int cb, int cr) {
+		int r = clamp(y + ((91881 * cr + 32768) >> 16));
+		int g = clamp(y - ((22554 * cb + 46802 * cr - 32768) >> 16));
+		int b = clamp(y + ((116130 * cb + 32768) >> 16));
+		return (r << 16) | (g << 8) | b;
+	}
+
+	private static int clamp(int value) {
+		return value < 0 ? 0 : value > 255 ? 255 : value;
+	}
+
+	/**
+	 * A decoded image, at 1/8 scale
+	 */
+	public static class DcImage {
+
+		private final int width;
+		private final int height;
+		private final int[] pixels;
+
+		DcImage(int width, int height, @NonNull int[] pixels) {
+			this.width = width;
+			this.height = height;
+			this.pixels = pixels;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		/**
+		 * @return The pixels, row by row, as 0xRRGGBB
+		 */
+		@NonNull
+		public int[] getPixels() {
+			return pixels;
+		}
+
+		/**
+		 * Writes the image scaled to size x size (nearest neighbor, sampling pixel centers) as RGB bytes,
+		 * the input layout of {@link yoavbz.dupimg.background.ImageClassifier}
+		 *
+		 * @param out  The buffer to write to, with at least size * size * 3 bytes remaining
+		 * @param size The output width and height
+		 */
+		public void writeRgb(@NonNull ByteBuffer out, int size) {
+			int[] columns = new int[size];
+			for (int x = 0; x < size; x++) {
+				columns[x] = (2 * x + 1) * width / (2 * size);
+			}
+			for (int y = 0; y < size; y++) {
+				int row = (2 * y + 1) * height / (2 * size) * width;
+				for (int x = 0; x < size; x++) {
+					int pixel = pixels[row + columns[x]];
+					out.put((byte) (pixel >> 16));
+					out.put((byte) (pixel >> 8));
+					out.put((byte) pixel);
+				}
+			}
+		}
+	}
+
+	private static class Component {
+
+		private final int id;
+		private final int h;
+		private final int v;
+		private final int quantTable;
+		private int dcTable;
+		private int acTable;
+		private int blocksPerLine;
+		private int scanBlocksX;
+		private int scanBlocksY;
+		private int[] dc;
+		private int predictor;
+
+		Component(int id, int h, int v, int quantTable) {
+			this.id = id;
+			this.h = h;
+			this.v = v;
+			this.quantTable = quantTable;
+		}
+
+		/**
+		 * Allocates the DC coefficients of all the component blocks, including the MCU padding
+		 */
+		void init(int width, int height, int maxH, int maxV, int mcusX, int mcusY) {
+			blocksPerLine = mcusX * h;
+			dc = new int[blocksPerLine * mcusY * v];
+			// The blocks of a non-interleaved scan cover only the component itself, without the MCU padding
+			scanBlocksX = ((width * h + maxH - 1) / maxH + 7) / 8;
+			scanBlocksY = ((height * v + maxV - 1) / maxV + 7) / 8;
+		}
+	}
+
+	/**
+	 * A Huffman decoding table, with a lookup table for the short codes
+	 */
+	private static class Huffman {
+
+		private static final int LOOKUP_BITS = 9;
+		private static final int LOOKUP_MASK = (1 << LOOKUP_BITS) - 1;
+
+		// (code length << 8) | value, 0 for codes longer than LOOKUP_BITS
+		private final int[] lookup = new int[1 << LOOKUP_BITS];
+		private final int[] maxCode = new int[17];
+		private final int[] minCode = new int[17];
+		private final int[] valueOffset = new int[17];
+		private final int[] values;
+
+		Huffman(@NonNull int[] counts, @NonNull int[] values) throws IOException {
+			this.values = values;
+			int code = 0;
+			int k = 0;
+			for (int size = 1; size <= 16; size++) {
+				valueOffset[size] = k;
+				minCode[size] = code;
+				for (int i = 0; i < counts[size]; i++, k++, code++) {
+					if (size <= LOOKUP_BITS && code < (1 << size)) {
+						int shift = LOOKUP_BITS - size;
+						for (int fill = 0; fill < (1 << shift); fill++) {
+							lookup[(code << shift) | fill] = (size << 8) | values[k];
+						}
+					}
+				}
+				if (code > (1 << size)) {
+					throw new IOException("Oversubscribed Huffman table");
+				}
+				maxCode[size] = counts[size] > 0 ? code - 1 : -1;
+				code <<= 1;
+			}
+		}
+	}
+}
@@ -0,0 +1,331 @@
+package yoavbz.dupimg.decode;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static yoavbz.dupimg.MainActivity.TAG;
+
+/**
+ * A persistent store of upright JPEG thumbnails, written from the bitmaps already decoded while scanning, so the
+ * gallery and the notifications don't have to decode the original images again.
+ * <p>
+ * Each thumbnail is a file named by a hash of the image path, followed by a trailer of the image file size and
+ * modification time it was made from (which image decoders ignore, as it comes after the JPEG end marker).
+ * A thumbnail whose trailer doesn't match the current file is stale, and isn't returned.
+ * <p>
+ * The store is bounded: when its files exceed the limit, the least recently used thumbnails are removed.
+ */
+public class ThumbnailStore {
+
+	// The maximal minimal dimension of a thumbnail, larger bitmaps are scaled down
+	public static final int THUMBNAIL_SIZE = 384;
+	private static final int QUALITY = 85;
+	private static final int TRAILER_SIZE = 2 * Long.BYTES;
+	private static final long DEFAULT_MAX_BYTES = 128 * 1024 * 1024;
+	// Trimming a bit below the limit, so a full store isn't trimmed on every put
+	private static final double TRIM_FACTOR = 0.9;
+	// The precision of the last use times of the LRU trimming
+	private static final long TOUCH_INTERVAL = TimeUnit.DAYS.toMillis(1);
+	// Excluding the temporary files of thumbnails being written
+	private static final FilenameFilter THUMBNAIL_FILTER = (parent, name) -> name.endsWith(".jpg");
+	private static ThumbnailStore INSTANCE;
+
+	private final File dir;
+	private long maxBytes = DEFAULT_MAX_BYTES;
+	// The total size of the stored files, -1 until first needed
+	private long totalBytes = -1;
+
+	private ThumbnailStore(@NonNull Context context) {
+		dir = new File(context.getFilesDir(), "thumbnails");
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			Log.e(TAG, "ThumbnailStore: Couldn't create " + dir);
+		}
+	}
+
+	public static synchronized ThumbnailStore getInstance(@NonNull Context context) {
+		if (INSTANCE == null) {
+			INSTANCE = new ThumbnailStore(context.getApplicationContext());
+		}
+		return INSTANCE;
+	}
+
+	@NonNull
+	private File getFile(@NonNull String path) {
+		return new File(dir, UUID.nameUUIDFromBytes(path.getBytes(StandardCharsets.UTF_8)) + ".jpg");
+	}
+
+	/**
+	 * Stores a thumbnail of the given image, replacing any previous one
+	 *
+	 * @param path     The image path
+	 * @param bitmap   The decoded image (at least {@link #THUMBNAIL_SIZE} pixels per dimension for a sharp
+	 *                 thumbnail), left untouched
+	 * @param metadata The image metadata, for orienting the thumbnail and validating it later
+	 */
+	public void put(@NonNull String path, @NonNull Bitmap bitmap, @NonNull ImageMetadata metadata) {
+		float scale = Math.min(1f, (float) THUMBNAIL_SIZE / Math.min(bitmap.getWidth(), bitmap.getHeight()));
+		Matrix matrix = new Matrix();
+		matrix.postScale(scale, scale);
+		matrix.postRotate(metadata.getOrientation());
+		int width = Math.round(bitmap.getWidth() * scale);
+		int height = Math.round(bitmap.getHeight() * scale);
+		boolean rotated = metadata.getOrientation() % 180 != 0;
+		BitmapPool pool = BitmapPool.getInstance();
+		Bitmap thumbnail = pool.get(rotated ? height : width, rotated ? width : height, Bitmap.Config.ARGB_8888);
+		// Drawing the rotated image back into the thumbnail bounds
+		matrix.postTranslate(metadata.getOrientation() == 90 || metadata.getOrientation() == 180 ?
+		                     thumbnail.getWidth() : 0,
+		                     metadata.getOrientation() == 180 || metadata.getOrientation() == 270 ?
+		                     thumbnail.getHeight() : 0);
+		new Canvas(thumbnail).drawBitmap(bitmap, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+
+		File file = getFile(path);
+		File temp = new File(dir, file.getName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			thumbnail.compress(Bitmap.CompressFormat.JPEG, QUALITY, out);
+			out.writeLong(metadata.getFileSize());
+			out.writeLong(metadata.getLastModified());
+		} catch (IOException e) {
+			Log.e(TAG, "ThumbnailStore: Couldn't write the thumbnail of " + path, e);
+			temp.delete();
+			return;
+		} finally {
+			pool.put(thumbnail);
+		}
+		commit(path, temp, file);
+	}
+
+	/**
+	 * Stores the thumbnail of an image as the thumbnail of a byte-identical copy of it, with the copy's own
+	 * size and modification time
+	 *
+	 * @param from         The path of the image whose thumbnail is stored
+	 * @param to           The path of the copy
+	 * @param fileSize     The copy's file size, see {@link ImageMetadata#getFileSize()}
+	 * @param lastModified The copy's modification time, see {@link ImageMetadata#getLastModified()}
+	 * @return true if copied, false if the image has no valid thumbnail or on failure
+	 */
+	public boolean copy(@NonNull String from, @NonNull String to, long fileSize, long lastModified) {
+		File source = get(from);
+		if (source == null) {
+			return false;
+		}
+		File file = getFile(to);
+		File temp = new File(dir, file.getName() + ".tmp");
+		try (RandomAccessFile in = new RandomAccessFile(source, "r");
+		     DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			byte[] jpeg = new byte[(int) (in.length() - TRAILER_SIZE)];
+			in.readFully(jpeg);
+			out.write(jpeg);
+			out.writeLong(fileSize);
+			out.writeLong(lastModified);
+		} catch (IOException e) {
+			Log.e(TAG, "ThumbnailStore: Couldn't copy the thumbnail of " + from, e);
+			temp.delete();
+			return false;
+		}
+		return commit(to, temp, file);
+	}
+
+	/**
+	 * Decodes the given image and stores its thumbnail, for images scanned without storing one (e.g. classified
+	 * by the EXIF thumbnail, or scanned by an older version). Should be called from a background thread
+	 *
+	 * @param path The image path
+	 * @return The new thumbnail file, or null on failure
+	 */
+	@Nullable
+	public File create(@NonNull String path) {
+		Bitmap bitmap;
+		try {
+			bitmap = BitmapDecoder.decodeSampled(path, THUMBNAIL_SIZE);
+		} catch (IOException e) {
+			Log.e(TAG, "ThumbnailStore: Couldn't decode " + path, e);
+			return null;
+		}
+		try {
+			put(path, bitmap, ImageMetadata.read(path));
+		} finally {
+			BitmapPool.getInstance().put(bitmap);
+		}
+		return get(path);
+	}
+
+	/**
+	 * Replaces the thumbnail file by the written temporary file
+	 *
+	 * @return true if replaced
+	 */
+	private synchronized boolean commit(@NonNull String path, @NonNull File temp, @NonNull File file) {
+		long previousLength = file.length();
+		if (!temp.renameTo(file)) {
+			Log.e(TAG, "ThumbnailStore: Couldn't store the thumbnail of " + path);
+			temp.delete();
+			return false;
+		}
+		if (totalBytes >= 0) {
+			totalBytes += file.length() - previousLength;
+		}
+		trimTo(maxBytes);
+		return true;
+	}
+
+	/**
+	 * @param path The image path
+	 * @return The thumbnail file of the image, or null if missing or stale
+	 */
+	@Nullable
+	public File get(@NonNull String path) {
+		File file = getFile(path);
+		File image = new File(path);
+		try (RandomAccessFile thumbnail = new RandomAccessFile(file, "r")) {
+			if (thumbnail.length() <= TRAILER_SIZE) {
+				return null;
+			}
+			thumbnail.seek(thumbnail.length() - TRAILER_SIZE);
+			long fileSize = thumbnail.readLong();
+			long lastModified = thumbnail.readLong();
+			// Comparing at seconds precision, as ImageMetadata may have a finer modification time than File
+			if (fileSize != image.length() || lastModified / 1000 != image.lastModified() / 1000) {
+				return null;
+			}
+		} catch (IOException e) {
+			return null;
+		}
+		// Marking as recently used, for the LRU trimming. Coarsely, so repeated loads don't write the metadata
+		long now = System.currentTimeMillis();
+		if (now - file.lastModified() > TOUCH_INTERVAL) {
+			file.setLastModified(now);
+		}
+		return file;
+	}
+
+	/**
+	 * @param path The image path
+	 * @return The decoded thumbnail of the image, or null if missing or stale
+	 */
+	@Nullable
+	public Bitmap getBitmap(@NonNull String path) {
+		File file = get(path);
+		return file != null ? BitmapFactory.decodeFile(file.getPath()) : null;
+	}
+
+	/**
+	 * Same as {@link #getBitmap(String)}, creating the thumbnail if missing or stale (see {@link #create(String)}).
+	 * Should be called from a background thread
+	 */
+	@Nullable
+	public Bitmap getOrCreateBitmap(@NonNull String path) {
+		File file = get(path);
+		if (file == null) {
+			file = create(path);
+		}
+		return file != null ? BitmapFactory.decodeFile(file.getPath()) : null;
+	}
+
+	/**
+	 * Removes the thumbnail of the given image, if stored
+	 */
+	public synchronized void remove(@NonNull String path) {
+		File file = getFile(path);
+		long length = file.length();
+		if (!file.exists()) {
+			return;
+		}
+		if (!file.delete()) {
+			Log.e(TAG, "ThumbnailStore: Couldn't remove the thumbnail of " + path);
+		} else if (totalBytes >= 0) {
+			totalBytes -= length;
+		}
+	}
+
+	/**
+	 * Moves the thumbnail of a moved (or renamed) image to its new path, if stored
+	 */
+	public synchronized void move(@NonNull String from, @NonNull String to) {
+		File file = getFile(from);
+		if (!file.exists()) {
+			return;
+		}
+		File target = getFile(to);
+		// Replacing the thumbnail of the target path, if stored
+		long overwrittenLength = target.length();
+		if (!file.renameTo(target)) {
+			Log.e(TAG, "ThumbnailStore: Couldn't move the thumbnail of " + from);
+		} else if (totalBytes >= 0) {
+			totalBytes -= overwrittenLength;
+		}
+	}
+
+	/**
+	 * @param maxBytes The maximal number of bytes the stored thumbnails may take
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		trimTo(maxBytes);
+	}
+
+	/**
+	 * Removes the least recently used thumbnails, if the stored files exceed the given size
+	 */
+	private synchronized void trimTo(long bytes) {
+		File[] files = null;
+		if (totalBytes < 0) {
+			files = dir.listFiles(THUMBNAIL_FILTER);
+			totalBytes = 0;
+			if (files != null) {
+				for (File file : files) {
+					totalBytes += file.length();
+				}
+			}
+		}
+		if (totalBytes <= bytes) {
+			return;
+		}
+		if (files == null) {
+			files = dir.listFiles(THUMBNAIL_FILTER);
+			if (files == null) {
+				return;
+			}
+		}
+		// Least recently used first (at a day precision), as used thumbnails are touched by get()
+		long[] lastUsed = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		for (int i = 0; i < files.length; i++) {
+			lastUsed[i] = files[i].lastModified();
+			order[i] = i;
+		}
+		Arrays.sort(order, (i, j) -> Long.compare(lastUsed[i], lastUsed[j]));
+		long target = (long) (bytes * TRIM_FACTOR);
+		int removed = 0;
+		for (int i = 0; i < order.length && totalBytes > target; i++) {
+			File file = files[order[i]];
+			long length = file.length();
+			if (file.delete()) {
+				totalBytes -= length;
+				removed++;
+			}
+		}
+		Log.d(TAG, "ThumbnailStore: Trimmed " + removed + " thumbnails, " + totalBytes / 1024 + " KB left");
+	}
+}
@@ -0,0 +1,54 @@
+package yoavbz.dupimg.gallery;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.Registry;
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.load.Key;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
+import com.bumptech.glide.module.AppGlideModule;
+import com.bumptech.glide.signature.ObjectKey;
+
+import java.io.InputStream;
+
+import yoavbz.dupimg.Image;
+
+/**
+ * Configures Glide with a size-bounded LRU disk cache, kept across app restarts.
+ * Loads of local images should be signed by {@link #getSignature(Image)}, so the cached entries of a changed
+ * image are no longer used (and are evicted as the least recently used ones).
+ * Also registers {@link ThumbnailLoader}, for loading {@link Thumbnail}s.
+ */
+@GlideModule
+public class GalleryGlideModule extends AppGlideModule {
+
+	private static final long DISK_CACHE_SIZE = 64 * 1024 * 1024;
+
+	@Override
+	public void applyOptions(@NonNull Context context, @NonNull GlideBuilder builder) {
+		builder.setDiskCache(new InternalCacheDiskCacheFactory(context, DISK_CACHE_SIZE));
+	}
+
+	@Override
+	public void registerComponents(@NonNull Context context, @NonNull Glide glide, @NonNull Registry registry) {
+		registry.prepend(Thumbnail.class, InputStream.class, new ThumbnailLoader.Factory(context));
+	}
+
+	@Override
+	public boolean isManifestParsingEnabled() {
+		return false;
+	}
+
+	/**
+	 * @param image The image
+	 * @return A signature of the image file version, by its stored size and modification time
+	 */
+	@NonNull
+	public static Key getSignature(@NonNull Image image) {
+		return new ObjectKey(image.getFileSize() + "-" + image.getLastModified());
+	}
+}
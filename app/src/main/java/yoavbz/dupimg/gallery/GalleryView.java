@@ -15,6 +15,10 @@ import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader;
+import com.bumptech.glide.util.FixedPreloadSizeProvider;
+
 import org.apache.commons.math3.ml.clustering.Cluster;
 
 import java.util.ArrayList;
@@ -33,6 +37,7 @@ public class GalleryView extends RecyclerView {
 			.addTransition(new ChangeBounds())
 			.addTransition(new Fade(Fade.IN));
 	private GridImagesAdapter adapter;
+	private RecyclerViewPreloader<Image> preloader;
 
 	/**
 	 * Instantiates a new Media gallery view.
@@ -97,6 +102,15 @@ public class GalleryView extends RecyclerView {
 		int width = sizes.x / spanCount;
 		int height = 900 / spanCount;
 		adapter.setImageSize(width, height);
+		ThumbnailRequest.setSize(width, height);
+		// Preloading the thumbnails of the next screenful of rows
+		if (preloader != null) {
+			removeOnScrollListener(preloader);
+		}
+		preloader = new RecyclerViewPreloader<>(Glide.with(activity), adapter,
+		                                        new FixedPreloadSizeProvider<>(width, height),
+		                                        spanCount * (sizes.y / height + 1));
+		addOnScrollListener(preloader);
 		// Updating LayoutManager
 		TransitionManager.beginDelayedTransition(this, layoutTransition);
 		((GridLayoutManager) getLayoutManager()).setSpanCount(spanCount);
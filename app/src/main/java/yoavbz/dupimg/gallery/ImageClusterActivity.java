@@ -35,7 +35,7 @@ public class ImageClusterActivity extends AppCompatActivity
 		implements ViewPager.OnPageChangeListener, HorizontalListAdapter.OnImageClickListener {
 
 	private Toolbar toolbar;
-	private List<String> imagePaths;
+	private List<Image> images;
 	private ArrayList<String> toDelete;
 	private CustomViewPager viewPager;
 	private RecyclerView imagesHorizontalList;
@@ -55,7 +55,7 @@ public class ImageClusterActivity extends AppCompatActivity
 
 	private void initValues() {
 		final List<String> paths = getIntent().getStringArrayListExtra("IMAGES");
-		imageLoadingThread = new Thread(() -> imagePaths = ImageDatabase.getAppDatabase(this).imageDao().getByPaths(paths));
+		imageLoadingThread = new Thread(() -> images = ImageDatabase.getAppDatabase(this).imageDao().getByPaths(paths));
 		imageLoadingThread.start();
 		toDelete = new ArrayList<>();
 		transition = getIntent().getStringExtra("transition");
@@ -80,8 +80,8 @@ public class ImageClusterActivity extends AppCompatActivity
 			setResult(RESULT_CANCELED);
 			finish();
 		}
-		viewPager.setAdapter(new ViewPagerAdapter(this, imagePaths, toolbar, imagesHorizontalList, transition));
-		hAdapter = new HorizontalListAdapter(this, imagePaths, this, toDelete);
+		viewPager.setAdapter(new ViewPagerAdapter(this, images, toolbar, imagesHorizontalList, transition));
+		hAdapter = new HorizontalListAdapter(this, images, this, toDelete);
 		imagesHorizontalList.setLayoutManager(new LinearLayoutManager(this, LinearLayoutManager.HORIZONTAL,
 		                                                              false));
 		imagesHorizontalList.setAdapter(hAdapter);
@@ -107,7 +107,7 @@ public class ImageClusterActivity extends AppCompatActivity
 		if (item.getItemId() == R.id.action_delete) {
 			Spanned message =
 					Html.fromHtml("You chose to delete <b>" + toDelete.size() +
-							              "</b> out of <b>" + imagePaths.size() +
+							              "</b> out of <b>" + images.size() +
 							              "</b> images.<br>Are you sure you want to delete the selected images?", 0);
 			new AlertDialog.Builder(this)
 					.setTitle("Delete Duplicates?")
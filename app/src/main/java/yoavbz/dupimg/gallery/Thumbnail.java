@@ -0,0 +1,57 @@
+package yoavbz.dupimg.gallery;
+
+import androidx.annotation.NonNull;
+
+import java.util.Objects;
+
+import yoavbz.dupimg.Image;
+
+/**
+ * The Glide model of an image thumbnail, loaded by {@link ThumbnailLoader}.
+ * Identified by the image path and the file size and modification time stored with the image, so a changed image
+ * gets new cache entries without touching the file on the calling (usually main) thread.
+ */
+public class Thumbnail {
+
+	private final String path;
+	private final long fileSize;
+	private final long lastModified;
+
+	public Thumbnail(@NonNull Image image) {
+		path = image.getPath();
+		fileSize = image.getFileSize();
+		lastModified = image.getLastModified();
+	}
+
+	@NonNull
+	public String getPath() {
+		return path;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof Thumbnail)) {
+			return false;
+		}
+		Thumbnail thumbnail = (Thumbnail) o;
+		return fileSize == thumbnail.fileSize && lastModified == thumbnail.lastModified &&
+				path.equals(thumbnail.path);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(path, fileSize, lastModified);
+	}
+
+	/**
+	 * Used by Glide's disk cache key as well
+	 */
+	@NonNull
+	@Override
+	public String toString() {
+		return path + "-" + fileSize + "-" + lastModified;
+	}
+}
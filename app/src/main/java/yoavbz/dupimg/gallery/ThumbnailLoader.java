@@ -0,0 +1,125 @@
+package yoavbz.dupimg.gallery;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.MultiModelLoaderFactory;
+import com.bumptech.glide.signature.ObjectKey;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import yoavbz.dupimg.decode.ThumbnailStore;
+
+/**
+ * Loads a {@link Thumbnail} on Glide's executors: the stored thumbnail if it's valid (see {@link ThumbnailStore}),
+ * creating it if missing, or the original image if it can't be created.
+ */
+public class ThumbnailLoader implements ModelLoader<Thumbnail, InputStream> {
+
+	private final ThumbnailStore store;
+
+	private ThumbnailLoader(@NonNull ThumbnailStore store) {
+		this.store = store;
+	}
+
+	@Override
+	public LoadData<InputStream> buildLoadData(@NonNull Thumbnail thumbnail, int width, int height,
+	                                           @NonNull Options options) {
+		return new LoadData<>(new ObjectKey(thumbnail), new Fetcher(store, thumbnail));
+	}
+
+	@Override
+	public boolean handles(@NonNull Thumbnail thumbnail) {
+		return true;
+	}
+
+	private static class Fetcher implements DataFetcher<InputStream> {
+
+		private final ThumbnailStore store;
+		private final Thumbnail thumbnail;
+		private InputStream stream;
+		private boolean stored;
+
+		Fetcher(@NonNull ThumbnailStore store, @NonNull Thumbnail thumbnail) {
+			this.store = store;
+			this.thumbnail = thumbnail;
+		}
+
+		@Override
+		public void loadData(@NonNull Priority priority, @NonNull DataCallback<? super InputStream> callback) {
+			File file = store.get(thumbnail.getPath());
+			if (file == null) {
+				// Back-filling the missing thumbnail, so the next loads (and the notifications) can use it
+				file = store.create(thumbnail.getPath());
+			}
+			stored = file != null;
+			try {
+				stream = new FileInputStream(stored ? file : new File(thumbnail.getPath()));
+			} catch (IOException e) {
+				callback.onLoadFailed(e);
+				return;
+			}
+			callback.onDataReady(stream);
+		}
+
+		@Override
+		public void cleanup() {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException ignored) {
+				}
+			}
+		}
+
+		@Override
+		public void cancel() {
+		}
+
+		@NonNull
+		@Override
+		public Class<InputStream> getDataClass() {
+			return InputStream.class;
+		}
+
+		/**
+		 * Stored thumbnails are reported as disk cached data, so with {@link
+		 * com.bumptech.glide.load.engine.DiskCacheStrategy#AUTOMATIC} only the originals are resized into Glide's
+		 * disk cache, as the stored thumbnails are small local files already
+		 */
+		@NonNull
+		@Override
+		public DataSource getDataSource() {
+			return stored ? DataSource.DATA_DISK_CACHE : DataSource.LOCAL;
+		}
+	}
+
+	public static class Factory implements ModelLoaderFactory<Thumbnail, InputStream> {
+
+		private final ThumbnailStore store;
+
+		public Factory(@NonNull Context context) {
+			store = ThumbnailStore.getInstance(context);
+		}
+
+		@NonNull
+		@Override
+		public ModelLoader<Thumbnail, InputStream> build(@NonNull MultiModelLoaderFactory multiFactory) {
+			return new ThumbnailLoader(store);
+		}
+
+		@Override
+		public void teardown() {
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package yoavbz.dupimg.gallery;
+
+import android.graphics.drawable.Drawable;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.request.RequestOptions;
+
+import yoavbz.dupimg.Image;
+import yoavbz.dupimg.decode.ThumbnailStore;
+
+/**
+ * Builds the Glide request of an image thumbnail, shared by the gallery grid, the cluster strip and the pager,
+ * so they all hit the same memory cache entry: the same model (a {@link Thumbnail}, resolved to the stored
+ * thumbnail or the original image by {@link ThumbnailLoader}, off the calling thread) and size (the grid cell
+ * size, see {@link GalleryView#setSpanCount(int)}), without transformations (the image views crop the thumbnail
+ * themselves).
+ */
+public class ThumbnailRequest {
+
+	private static int width = ThumbnailStore.THUMBNAIL_SIZE;
+	private static int height = ThumbnailStore.THUMBNAIL_SIZE;
+
+	/**
+	 * Sets the size of the thumbnails to load
+	 */
+	static void setSize(int width, int height) {
+		ThumbnailRequest.width = width;
+		ThumbnailRequest.height = height;
+	}
+
+	public static int getWidth() {
+		return width;
+	}
+
+	public static int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Doesn't access the files, so it may be called from the main thread
+	 *
+	 * @param glide The request manager, of the loading activity
+	 * @param image The image
+	 * @return The thumbnail request, loading the stored thumbnail if available, or the original image otherwise
+	 */
+	@NonNull
+	public static RequestBuilder<Drawable> load(@NonNull RequestManager glide, @NonNull Image image) {
+		return glide.load(new Thumbnail(image))
+		            .apply(new RequestOptions()
+				                   .override(width, height)
+				                   .dontTransform()
+				                   // Caches only the resized originals, see ThumbnailLoader
+				                   .diskCacheStrategy(DiskCacheStrategy.AUTOMATIC));
+	}
+}
@@ -0,0 +1,314 @@
+package yoavbz.dupimg.gallery;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.util.AttributeSet;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.exifinterface.media.ExifInterface;
+
+import com.github.chrisbanes.photoview.PhotoView;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import yoavbz.dupimg.decode.BitmapPool;
+
+import static yoavbz.dupimg.MainActivity.TAG;
+
+/**
+ * A {@link PhotoView} that keeps its (screen-sized) drawable as a base layer, and once zoomed in beyond the base
+ * layer resolution, draws the visible part of the original image over it in tiles, decoded by
+ * {@link BitmapRegionDecoder} at the sample size matching the current zoom.
+ * Tiles are decoded on a shared background pool, and tiles that are no longer visible are released, so memory is
+ * bounded by the screen size regardless of the image resolution.
+ */
+public class TiledPhotoView extends PhotoView {
+
+	// The size (in decoded pixels) of a tile
+	private static final int TILE_SIZE = 512;
+	private static final float MIN_MAXIMUM_SCALE = 3f;
+	private static final ExecutorService TILE_EXECUTOR = Executors.newFixedThreadPool(2);
+
+	private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	private final Matrix sourceToView = new Matrix();
+	private final Matrix viewToSource = new Matrix();
+	private final List<Tile> tiles = new ArrayList<>();
+	private String path;
+	@Nullable
+	private BitmapRegionDecoder decoder;
+	private boolean opening = false;
+	// The source image dimensions, before the EXIF rotation
+	private int sourceWidth;
+	private int sourceHeight;
+	private int rotation;
+	private int sampleSize;
+
+	public TiledPhotoView(Context context) {
+		this(context, null);
+	}
+
+	public TiledPhotoView(Context context, AttributeSet attr) {
+		this(context, attr, 0);
+	}
+
+	public TiledPhotoView(Context context, AttributeSet attr, int defStyle) {
+		super(context, attr, defStyle);
+		setOnMatrixChangeListener(rect -> updateTiles());
+	}
+
+	/**
+	 * @param path The image path, to decode the tiles from
+	 */
+	public void setImagePath(@Nullable String path) {
+		if (path != null && path.equals(this.path)) {
+			return;
+		}
+		release();
+		this.path = path;
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		release();
+		super.onDetachedFromWindow();
+	}
+
+	/**
+	 * Releases the tiles and the region decoder
+	 */
+	private void release() {
+		clearTiles();
+		if (decoder != null) {
+			BitmapRegionDecoder released = decoder;
+			// Recycling in the pool, after any pending tile decoding
+			TILE_EXECUTOR.execute(released::recycle);
+			decoder = null;
+		}
+		path = null;
+		opening = false;
+	}
+
+	private void clearTiles() {
+		for (Tile tile : tiles) {
+			tile.release();
+		}
+		tiles.clear();
+	}
+
+	/**
+	 * Opens the region decoder in the background, updating the tiles when done
+	 */
+	private void openDecoder() {
+		opening = true;
+		String path = this.path;
+		TILE_EXECUTOR.execute(() -> {
+			BitmapRegionDecoder decoder;
+			int rotation;
+			try {
+				decoder = BitmapRegionDecoder.newInstance(path, false);
+				rotation = new ExifInterface(path).getRotationDegrees();
+			} catch (IOException e) {
+				Log.e(TAG, "TiledPhotoView: Couldn't open " + path, e);
+				return;
+			}
+			post(() -> {
+				if (!path.equals(this.path)) {
+					decoder.recycle();
+					return;
+				}
+				this.decoder = decoder;
+				this.rotation = rotation;
+				sourceWidth = decoder.getWidth();
+				sourceHeight = decoder.getHeight();
+				updateMaximumScale();
+				updateTiles();
+			});
+		});
+	}
+
+	/**
+	 * Allows zooming in up to twice the original image resolution
+	 */
+	private void updateMaximumScale() {
+		RectF displayRect = getDisplayRect();
+		if (displayRect == null || displayRect.width() <= 0) {
+			return;
+		}
+		float fittedWidth = displayRect.width() / getScale();
+		int uprightWidth = rotation % 180 == 0 ? sourceWidth : sourceHeight;
+		float maximumScale = Math.max(MIN_MAXIMUM_SCALE, 2 * uprightWidth / fittedWidth);
+		if (maximumScale > getMediumScale()) {
+			setMaximumScale(maximumScale);
+		}
+	}
+
+	/**
+	 * Decodes the tiles visible at the current zoom (if the base layer isn't sharp enough), and releases the others
+	 */
+	private void updateTiles() {
+		Drawable drawable = getDrawable();
+		RectF displayRect = getDisplayRect();
+		if (path == null || drawable == null || displayRect == null || displayRect.width() <= 0) {
+			return;
+		}
+		int baseWidth = drawable.getIntrinsicWidth();
+		if (displayRect.width() <= baseWidth) {
+			// The base layer is sharp enough
+			clearTiles();
+			return;
+		}
+		if (decoder == null) {
+			if (!opening) {
+				openDecoder();
+			}
+			return;
+		}
+		updateMatrices(displayRect);
+		// The view pixels per source pixel
+		float scale = displayRect.width() / (rotation % 180 == 0 ? sourceWidth : sourceHeight);
+		int sampleSize = 1;
+		while (sampleSize * 2 * scale <= 1) {
+			sampleSize *= 2;
+		}
+		if (sampleSize != this.sampleSize) {
+			clearTiles();
+			this.sampleSize = sampleSize;
+		}
+
+		// Mapping the view bounds to the source image, for finding the visible tiles
+		RectF visible = new RectF(0, 0, getWidth(), getHeight());
+		viewToSource.mapRect(visible);
+		if (!visible.intersect(0, 0, sourceWidth, sourceHeight)) {
+			clearTiles();
+			return;
+		}
+		Iterator<Tile> iterator = tiles.iterator();
+		while (iterator.hasNext()) {
+			Tile tile = iterator.next();
+			if (!RectF.intersects(visible, new RectF(tile.source))) {
+				tile.release();
+				iterator.remove();
+			}
+		}
+		int tileSourceSize = TILE_SIZE * sampleSize;
+		for (int top = (int) visible.top / tileSourceSize * tileSourceSize; top < visible.bottom;
+		     top += tileSourceSize) {
+			for (int left = (int) visible.left / tileSourceSize * tileSourceSize; left < visible.right;
+			     left += tileSourceSize) {
+				if (!hasTile(left, top)) {
+					Tile tile = new Tile(new Rect(left, top, Math.min(left + tileSourceSize, sourceWidth),
+					                              Math.min(top + tileSourceSize, sourceHeight)), sampleSize);
+					tiles.add(tile);
+					decodeTile(tile);
+				}
+			}
+		}
+		invalidate();
+	}
+
+	private boolean hasTile(int left, int top) {
+		for (Tile tile : tiles) {
+			if (tile.source.left == left && tile.source.top == top) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Maps the source image (before the EXIF rotation) to the current display rect
+	 */
+	private void updateMatrices(@NonNull RectF displayRect) {
+		// Rotating around the origin, then translating the rotated image back to it
+		sourceToView.setRotate(rotation);
+		sourceToView.postTranslate(rotation == 90 ? sourceHeight : rotation == 180 ? sourceWidth : 0,
+		                           rotation == 180 ? sourceHeight : rotation == 270 ? sourceWidth : 0);
+		boolean rotated = rotation % 180 != 0;
+		sourceToView.postScale(displayRect.width() / (rotated ? sourceHeight : sourceWidth),
+		                       displayRect.height() / (rotated ? sourceWidth : sourceHeight));
+		sourceToView.postTranslate(displayRect.left, displayRect.top);
+		sourceToView.invert(viewToSource);
+	}
+
+	private void decodeTile(@NonNull Tile tile) {
+		BitmapRegionDecoder decoder = this.decoder;
+		TILE_EXECUTOR.execute(() -> {
+			if (tile.released) {
+				return;
+			}
+			BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inSampleSize = tile.sampleSize;
+			options.inBitmap = BitmapPool.getInstance().get(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+			Bitmap bitmap;
+			try {
+				bitmap = decoder.decodeRegion(tile.source, options);
+			} catch (IllegalStateException | IllegalArgumentException e) {
+				// The decoder was recycled, or the pooled bitmap couldn't be reused
+				BitmapPool.getInstance().put(options.inBitmap);
+				return;
+			}
+			post(() -> {
+				if (tile.released) {
+					BitmapPool.getInstance().put(bitmap);
+				} else {
+					tile.bitmap = bitmap;
+					invalidate();
+				}
+			});
+		});
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		super.onDraw(canvas);
+		if (tiles.isEmpty()) {
+			return;
+		}
+		canvas.save();
+		canvas.concat(sourceToView);
+		Rect decoded = new Rect();
+		for (Tile tile : tiles) {
+			if (tile.bitmap != null) {
+				// Tiles are decoded into the top left of a full tile bitmap
+				decoded.set(0, 0, (tile.source.width() + tile.sampleSize - 1) / tile.sampleSize,
+				            (tile.source.height() + tile.sampleSize - 1) / tile.sampleSize);
+				canvas.drawBitmap(tile.bitmap, decoded, tile.source, paint);
+			}
+		}
+		canvas.restore();
+	}
+
+	private static class Tile {
+
+		private final Rect source;
+		private final int sampleSize;
+		private volatile boolean released = false;
+		private Bitmap bitmap;
+
+		private Tile(@NonNull Rect source, int sampleSize) {
+			this.source = source;
+			this.sampleSize = sampleSize;
+		}
+
+		private void release() {
+			released = true;
+			BitmapPool.getInstance().put(bitmap);
+			bitmap = null;
+		}
+	}
+}
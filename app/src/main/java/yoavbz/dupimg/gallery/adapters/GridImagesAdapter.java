@@ -9,25 +9,29 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
-import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.ListPreloader;
+import com.bumptech.glide.RequestBuilder;
 import com.bumptech.glide.load.resource.drawable.DrawableTransitionOptions;
-import com.bumptech.glide.request.RequestOptions;
 
 import org.apache.commons.math3.ml.clustering.Cluster;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
 import yoavbz.dupimg.Image;
 import yoavbz.dupimg.R;
 import yoavbz.dupimg.gallery.GalleryView;
+import yoavbz.dupimg.gallery.ThumbnailRequest;
 
-public class GridImagesAdapter extends RecyclerView.Adapter<GridImagesAdapter.ViewHolder> {
+public class GridImagesAdapter extends RecyclerView.Adapter<GridImagesAdapter.ViewHolder>
+		implements ListPreloader.PreloadModelProvider<Image> {
 
 	@SuppressLint("SimpleDateFormat")
 	private static final SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
@@ -56,14 +60,10 @@ public class GridImagesAdapter extends RecyclerView.Adapter<GridImagesAdapter.Vi
 		holder.firstImage = images.get(0);
 		// Loading cluster thumbnail using Glide
 		holder.updateThumbnailSize();
-		Glide.with(context)
-		     .load(holder.firstImage.getPath())
-		     .apply(new RequestOptions()
-				            .placeholder(R.drawable.gallery_placeholder)
-				            // Saving original image to cache for future loadings
-				            .diskCacheStrategy(DiskCacheStrategy.RESOURCE))
-		     .transition(DrawableTransitionOptions.withCrossFade(500))
-		     .into(holder.clusterThumbnail);
+		ThumbnailRequest.load(Glide.with(context), holder.firstImage)
+		                .placeholder(R.drawable.gallery_placeholder)
+		                .transition(DrawableTransitionOptions.withCrossFade(500))
+		                .into(holder.clusterThumbnail);
 		// Setting cluster size
 		holder.clusterSize.setText(String.valueOf(images.size()));
 		// Setting cluster date
@@ -76,6 +76,18 @@ public class GridImagesAdapter extends RecyclerView.Adapter<GridImagesAdapter.Vi
 		return clusters.size();
 	}
 
+	@NonNull
+	@Override
+	public List<Image> getPreloadItems(int position) {
+		return Collections.singletonList(clusters.get(position).getPoints().get(0));
+	}
+
+	@Nullable
+	@Override
+	public RequestBuilder<?> getPreloadRequestBuilder(@NonNull Image image) {
+		return ThumbnailRequest.load(Glide.with(context), image);
+	}
+
 	public void setOnImageClickListener(GalleryView.OnClusterClickListener onImageClickListener) {
 		this.clickListener = onImageClickListener;
 	}
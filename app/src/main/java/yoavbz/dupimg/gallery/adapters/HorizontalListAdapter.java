@@ -13,19 +13,20 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
-import com.bumptech.glide.request.RequestOptions;
 
 import java.util.ArrayList;
 import java.util.List;
 
+import yoavbz.dupimg.Image;
 import yoavbz.dupimg.R;
+import yoavbz.dupimg.gallery.ThumbnailRequest;
 
 /**
  * The type Horizontal list adapters.
  */
 public class HorizontalListAdapter extends RecyclerView.Adapter<HorizontalListAdapter.ViewHolder> {
 
-	private final List<String> paths;
+	private final List<Image> images;
 	private final AppCompatActivity activity;
 	private final OnImageClickListener clickListener;
 	private final ArrayList<String> toDelete;
@@ -35,14 +36,14 @@ public class HorizontalListAdapter extends RecyclerView.Adapter<HorizontalListAd
 	 * Instantiates a new Horizontal list adapters.
 	 *
 	 * @param activity      The activity
-	 * @param paths         The list images
+	 * @param images        The list images
 	 * @param clickListener The click listener for the images
 	 * @param toDelete      Reference to the list of images to delete (selected images)
 	 */
-	public HorizontalListAdapter(AppCompatActivity activity, List<String> paths, OnImageClickListener clickListener,
+	public HorizontalListAdapter(AppCompatActivity activity, List<Image> images, OnImageClickListener clickListener,
 	                             ArrayList<String> toDelete) {
 		this.activity = activity;
-		this.paths = paths;
+		this.images = images;
 		this.clickListener = clickListener;
 		this.toDelete = toDelete;
 	}
@@ -55,12 +56,13 @@ public class HorizontalListAdapter extends RecyclerView.Adapter<HorizontalListAd
 
 	@Override
 	public void onBindViewHolder(@NonNull final HorizontalListAdapter.ViewHolder holder, final int position) {
-		holder.imagePath = paths.get(position);
+		Image image = images.get(position);
+		holder.imagePath = image.getPath();
 
-		Glide.with(activity)
-		     .load(holder.imagePath)
-		     .apply(new RequestOptions().placeholder(R.drawable.gallery_placeholder))
-		     .into(holder.thumbnail);
+		// Sharing the grid thumbnail request, so the gallery thumbnails are reused from the memory cache
+		ThumbnailRequest.load(Glide.with(activity), image)
+		                .placeholder(R.drawable.gallery_placeholder)
+		                .into(holder.thumbnail);
 
 		holder.updateViews();
 		holder.updateThumbnailFilter(position);
@@ -69,7 +71,7 @@ public class HorizontalListAdapter extends RecyclerView.Adapter<HorizontalListAd
 
 	@Override
 	public int getItemCount() {
-		return paths.size();
+		return images.size();
 	}
 
 	public void setSelectedItem(int position) {
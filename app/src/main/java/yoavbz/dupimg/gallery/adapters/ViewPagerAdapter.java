@@ -21,12 +21,14 @@ import com.bumptech.glide.load.engine.GlideException;
 import com.bumptech.glide.request.RequestListener;
 import com.bumptech.glide.request.RequestOptions;
 import com.bumptech.glide.request.target.Target;
-import com.github.chrisbanes.photoview.PhotoView;
-import com.github.chrisbanes.photoview.PhotoViewAttacher;
 
 import java.util.List;
 
+import yoavbz.dupimg.Image;
 import yoavbz.dupimg.R;
+import yoavbz.dupimg.gallery.GalleryGlideModule;
+import yoavbz.dupimg.gallery.ThumbnailRequest;
+import yoavbz.dupimg.gallery.TiledPhotoView;
 
 /**
  * The type View pager adapter.
@@ -34,7 +36,7 @@ import yoavbz.dupimg.R;
 public class ViewPagerAdapter extends PagerAdapter {
 
 	private final AppCompatActivity activity;
-	private final List<String> paths;
+	private final List<Image> images;
 	private boolean hideHorizontalList = true;
 	private final Toolbar toolbar;
 	private final RecyclerView imagesHorizontalList;
@@ -44,15 +46,15 @@ public class ViewPagerAdapter extends PagerAdapter {
 	 * Instantiates a new View pager adapter.
 	 *
 	 * @param activity             the activity
-	 * @param paths                the images
+	 * @param images               the images
 	 * @param toolbar              the toolbar
 	 * @param imagesHorizontalList the images horizontal list
 	 * @param transition           the transition name
 	 */
-	public ViewPagerAdapter(AppCompatActivity activity, List<String> paths, Toolbar toolbar, RecyclerView
+	public ViewPagerAdapter(AppCompatActivity activity, List<Image> images, Toolbar toolbar, RecyclerView
 			imagesHorizontalList, String transition) {
 		this.activity = activity;
-		this.paths = paths;
+		this.images = images;
 		this.toolbar = toolbar;
 		this.imagesHorizontalList = imagesHorizontalList;
 		this.transition = transition;
@@ -60,7 +62,7 @@ public class ViewPagerAdapter extends PagerAdapter {
 
 	@Override
 	public int getCount() {
-		return paths.size();
+		return images.size();
 	}
 
 	@Override
@@ -72,14 +74,18 @@ public class ViewPagerAdapter extends PagerAdapter {
 	@Override
 	public Object instantiateItem(@NonNull ViewGroup container, int position) {
 		View itemView = activity.getLayoutInflater().inflate(R.layout.pager_item, container, false);
-		String imagePath = paths.get(position);
-		PhotoView photoView = itemView.findViewById(R.id.image);
+		Image image = images.get(position);
+		String imagePath = image.getPath();
+		TiledPhotoView photoView = itemView.findViewById(R.id.image);
+		// Zooming in beyond the loaded (screen-sized) image decodes the visible tiles of the original
+		photoView.setImagePath(imagePath);
 		if (position == 0 && transition != null) {
 			// Starting transition when loading is finished (happens only once for first cluster image)
 			photoView.setTransitionName(transition);
 			Glide.with(activity)
 			     .load(imagePath)
-			     .apply(RequestOptions.noAnimation())
+			     .apply(RequestOptions.noAnimation().signature(GalleryGlideModule.getSignature(image)))
+			     .thumbnail(ThumbnailRequest.load(Glide.with(activity), image))
 			     .listener(new RequestListener<Drawable>() {
 				     @Override
 				     public boolean onLoadFailed(@Nullable GlideException e, Object model, Target<Drawable> target, boolean isFirstResource) {
@@ -98,14 +104,15 @@ public class ViewPagerAdapter extends PagerAdapter {
 			     })
 			     .into(photoView);
 		} else {
-			// Default image loading
+			// Default image loading, showing the (usually memory cached) thumbnail until the image is loaded
 			Glide.with(activity)
 			     .load(imagePath)
+			     .apply(RequestOptions.signatureOf(GalleryGlideModule.getSignature(image)))
+			     .thumbnail(ThumbnailRequest.load(Glide.with(activity), image))
 			     .into(photoView);
 		}
 		// Setting OnPhotoTapListener to show/hide the imagesHorizontalList
-		PhotoViewAttacher photoViewAttacher = new PhotoViewAttacher(photoView);
-		photoViewAttacher.setOnPhotoTapListener((view, x, y) -> {
+		photoView.setOnPhotoTapListener((view, x, y) -> {
 			Log.d("ViewPagerAdapter", "onTap");
 			if (hideHorizontalList) {
 				hideHorizontalList = false;
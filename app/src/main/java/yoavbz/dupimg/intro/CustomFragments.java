@@ -29,6 +29,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import yoavbz.dupimg.R;
+import yoavbz.dupimg.background.ChangeJournal;
 import yoavbz.dupimg.treeview.Directory;
 import yoavbz.dupimg.treeview.DirectoryTreeView;
 import yoavbz.dupimg.treeview.FileUtils;
@@ -134,24 +135,22 @@ class CustomFragments {
 			selectDirButton.setOnClickListener(v -> {
 				DirectoryTreeView dirTreeView = new DirectoryTreeView(getContext());
 				Set<String> selectedDirs = new HashSet<>();
-				dirTreeView.setOnDirStateChangeListener((dir, state) -> {
-					if (state == Directory.DirState.FULL) {
-						selectedDirs.add(dir.getFile().getPath());
-					} else if (state == Directory.DirState.NONE) {
-						selectedDirs.remove(dir.getFile().getPath());
-					}
-				});
+				dirTreeView.setOnDirStateChangeListener((dir, state) ->
+						Directory.updateSelection(selectedDirs, dir.getFile().getPath(), state));
 				new AlertDialog.Builder(getContext())
 						.setTitle("Select directories to scan:")
 						.setView(dirTreeView)
 						.setPositiveButton("OK", (dialog, which) -> {
 							for (String dir : selectedDirs) {
-								FileUtils.showSdcardDialogIfNeeded(getActivity(), dir);
+								FileUtils.showSdcardDialogIfNeeded(getActivity(), Directory.getDirPath(dir));
 							}
 							((IntroActivity) getActivity()).getPager().goToNextSlide();
 							PreferenceManager.getDefaultSharedPreferences(getContext()).edit()
 							                 .putStringSet("dirs", selectedDirs)
 							                 .apply();
+							if (ChangeJournal.isEnabled(getContext())) {
+								ChangeJournal.getInstance(getContext()).start();
+							}
 						})
 						.setNegativeButton("Cancel", null)
 						.show();
@@ -200,6 +199,11 @@ class CustomFragments {
 				PreferenceManager.getDefaultSharedPreferences(getContext()).edit()
 				                 .putBoolean("isJobSchedule", isChecked)
 				                 .apply();
+				if (isChecked) {
+					ChangeJournal.getInstance(getContext()).start();
+				} else {
+					ChangeJournal.getInstance(getContext()).stop();
+				}
 			});
 			LinearLayout.LayoutParams lp = new LinearLayout.LayoutParams(700, 190);
 			lp.gravity = Gravity.CENTER;
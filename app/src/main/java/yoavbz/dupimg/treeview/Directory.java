@@ -7,12 +7,15 @@ import java.io.FileFilter;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Set;
 
 import static yoavbz.dupimg.treeview.Directory.DirState.PARTIAL;
 
 public class Directory {
 
-	private static final FileFilter dirFilter = file -> file.canRead() && file.isDirectory() && !file.isHidden();
+	public static final FileFilter dirFilter = file -> file.canRead() && file.isDirectory() && !file.isHidden();
+	// Marks a selected path of a partially selected dir, whose own images are scanned but not its sub-directories
+	public static final String TOP_LEVEL_SUFFIX = File.separator + "*";
 	private static OnDirStateChangeListener listener;
 	private final File dirFile;
 	private final int level;
@@ -32,6 +35,54 @@ public class Directory {
 		this.level = parent.level + 1;
 	}
 
+	/**
+	 * Updates the set of selected paths by the new state of a directory: a fully selected directory is scanned
+	 * recursively, and a partially selected one only for its own images (its selected sub-directories are in the
+	 * set themselves)
+	 *
+	 * @param selected The selected paths to update
+	 * @param path     The directory path
+	 * @param state    The new directory state
+	 */
+	public static void updateSelection(@NonNull Set<String> selected, @NonNull String path, @NonNull DirState state) {
+		selected.remove(path);
+		selected.remove(path + TOP_LEVEL_SUFFIX);
+		if (state == DirState.FULL) {
+			selected.add(path);
+		} else if (state == PARTIAL) {
+			selected.add(path + TOP_LEVEL_SUFFIX);
+		}
+	}
+
+	/**
+	 * @param selectedPath A selected path, see {@link #updateSelection(Set, String, DirState)}
+	 * @return true if only the directory's own images should be scanned
+	 */
+	public static boolean isTopLevelOnly(@NonNull String selectedPath) {
+		return selectedPath.endsWith(TOP_LEVEL_SUFFIX);
+	}
+
+	/**
+	 * @param selectedPath A selected path, see {@link #updateSelection(Set, String, DirState)}
+	 * @return The path of the selected directory
+	 */
+	@NonNull
+	public static String getDirPath(@NonNull String selectedPath) {
+		return isTopLevelOnly(selectedPath) ?
+				selectedPath.substring(0, selectedPath.length() - TOP_LEVEL_SUFFIX.length()) : selectedPath;
+	}
+
+	/**
+	 * @param selectedPath A selected path, see {@link #updateSelection(Set, String, DirState)}
+	 * @param path         A file path
+	 * @return true if the file is scanned as part of the selected path
+	 */
+	public static boolean isSelected(@NonNull String selectedPath, @NonNull String path) {
+		String prefix = new File(getDirPath(selectedPath)).getAbsolutePath() + File.separator;
+		return path.startsWith(prefix) &&
+				(!isTopLevelOnly(selectedPath) || path.indexOf(File.separatorChar, prefix.length()) < 0);
+	}
+
 	public static void setOnDirStateChangeListener(OnDirStateChangeListener listener) {
 		Directory.listener = listener;
 	}
@@ -0,0 +1,214 @@
+package yoavbz.dupimg.background;
+
+import android.app.Application;
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, application = Application.class)
+public class MediaStoreEnumeratorTest {
+
+	private static final String DIR = "/storage/emulated/0/DCIM";
+
+	private Context context;
+	private FakeMediaStore mediaStore;
+
+	@Before
+	public void setUp() {
+		context = ApplicationProvider.getApplicationContext();
+		mediaStore = Robolectric.buildContentProvider(FakeMediaStore.class).create(MediaStore.AUTHORITY).get();
+	}
+
+	@Test
+	public void findsAddedImages() {
+		mediaStore.insert(1, DIR + "/a.jpg", 100);
+		mediaStore.insert(2, "/storage/emulated/0/Download/b.jpg", 100);
+
+		ImageChangeSet changes = enumerate(Collections.emptySet());
+
+		assertEquals(set(DIR + "/a.jpg"), changes.getAdded());
+		assertTrue(changes.getRemoved().isEmpty());
+	}
+
+	@Test
+	public void findsImagesMovedWithinTheDirs() {
+		mediaStore.insert(1, DIR + "/a.jpg", 100);
+		mediaStore.insert(2, DIR + "/b.jpg", 100);
+		enumerate(Collections.emptySet());
+
+		// Moving keeps the row, its dates and the number of rows
+		mediaStore.move(1, DIR + "/Camera/a.jpg");
+		ImageChangeSet changes = enumerate(set(DIR + "/a.jpg", DIR + "/b.jpg"));
+
+		assertEquals(set(DIR + "/Camera/a.jpg"), changes.getAdded());
+		assertEquals(set(DIR + "/a.jpg"), changes.getRemoved());
+	}
+
+	@Test
+	public void findsDeletedImages() {
+		mediaStore.insert(1, DIR + "/a.jpg", 100);
+		mediaStore.insert(2, DIR + "/b.jpg", 100);
+		enumerate(Collections.emptySet());
+
+		mediaStore.delete(2);
+		ImageChangeSet changes = enumerate(set(DIR + "/a.jpg", DIR + "/b.jpg"));
+
+		assertTrue(changes.getAdded().isEmpty());
+		assertEquals(set(DIR + "/b.jpg"), changes.getRemoved());
+	}
+
+	@Test
+	public void findsModifiedImagesSinceTheWatermark() {
+		mediaStore.insert(1, DIR + "/a.jpg", 100);
+		mediaStore.insert(2, DIR + "/b.jpg", 100);
+		enumerate(Collections.emptySet());
+
+		mediaStore.touch(1, 200);
+		ImageChangeSet changes = enumerate(set(DIR + "/a.jpg", DIR + "/b.jpg"));
+
+		// The watermark is inclusive, so rows of its own second are fetched again
+		assertTrue(changes.getModified().contains(DIR + "/a.jpg"));
+		assertTrue(changes.getAdded().isEmpty());
+		assertTrue(changes.getRemoved().isEmpty());
+	}
+
+	@Test
+	public void seedsTheWatermarkWithoutReportingKnownImagesAsModified() {
+		mediaStore.insert(1, DIR + "/a.jpg", 100);
+		mediaStore.insert(2, DIR + "/b.jpg", 200);
+
+		// Known images scanned by the file system backend, before switching to MediaStore
+		ImageChangeSet changes = enumerate(set(DIR + "/a.jpg"));
+
+		assertTrue(changes.getModified().isEmpty());
+		assertEquals(set(DIR + "/b.jpg"), changes.getAdded());
+
+		mediaStore.insert(3, DIR + "/c.jpg", 300);
+		changes = enumerate(set(DIR + "/a.jpg", DIR + "/b.jpg"));
+
+		// Only the rows of the seeded watermark second and newer are fetched again
+		assertEquals(set(DIR + "/c.jpg"), changes.getAdded());
+		assertEquals(set(DIR + "/b.jpg"), changes.getModified());
+	}
+
+	@Test
+	public void scansOnlyTheTopLevelOfPartiallySelectedDirs() {
+		mediaStore.insert(1, DIR + "/a.jpg", 100);
+		mediaStore.insert(2, DIR + "/Camera/b.jpg", 100);
+
+		ImageChangeSet changes = new MediaStoreEnumerator(context).enumerate(Collections.emptySet(), DIR + "/*");
+
+		assertEquals(set(DIR + "/a.jpg"), changes.getAdded());
+	}
+
+	/**
+	 * Enumerates the test directory and commits the watermark, as a scan does
+	 */
+	private ImageChangeSet enumerate(Collection<String> knownPaths) {
+		MediaStoreEnumerator enumerator = new MediaStoreEnumerator(context);
+		ImageChangeSet changes = enumerator.enumerate(knownPaths, DIR);
+		enumerator.commit();
+		return changes;
+	}
+
+	private static Set<String> set(String... paths) {
+		return new HashSet<>(Arrays.asList(paths));
+	}
+
+	/**
+	 * A media provider of image rows, queried by SQLite so the LIKE selections behave as in MediaStore
+	 */
+	public static class FakeMediaStore extends ContentProvider {
+
+		private static final String TABLE = "images";
+
+		private SQLiteDatabase db;
+
+		@Override
+		public boolean onCreate() {
+			db = SQLiteDatabase.create(null);
+			db.execSQL("CREATE TABLE " + TABLE + " (" + MediaStore.Images.Media._ID + " INTEGER PRIMARY KEY, " +
+					           MediaStore.Images.Media.DATA + " TEXT, " + MediaStore.Images.Media.DATE_ADDED +
+					           " INTEGER, " + MediaStore.Images.Media.DATE_MODIFIED + " INTEGER)");
+			return true;
+		}
+
+		void insert(long id, String path, long date) {
+			ContentValues values = new ContentValues();
+			values.put(MediaStore.Images.Media._ID, id);
+			values.put(MediaStore.Images.Media.DATA, path);
+			values.put(MediaStore.Images.Media.DATE_ADDED, date);
+			values.put(MediaStore.Images.Media.DATE_MODIFIED, date);
+			db.insert(TABLE, null, values);
+		}
+
+		void move(long id, String path) {
+			ContentValues values = new ContentValues();
+			values.put(MediaStore.Images.Media.DATA, path);
+			update(id, values);
+		}
+
+		void touch(long id, long date) {
+			ContentValues values = new ContentValues();
+			values.put(MediaStore.Images.Media.DATE_MODIFIED, date);
+			update(id, values);
+		}
+
+		void delete(long id) {
+			db.delete(TABLE, MediaStore.Images.Media._ID + " = ?", new String[]{String.valueOf(id)});
+		}
+
+		private void update(long id, ContentValues values) {
+			db.update(TABLE, values, MediaStore.Images.Media._ID + " = ?", new String[]{String.valueOf(id)});
+		}
+
+		@Override
+		public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+		                    String sortOrder) {
+			return db.query(TABLE, projection, selection, selectionArgs, null, null, sortOrder);
+		}
+
+		@Override
+		public String getType(Uri uri) {
+			return null;
+		}
+
+		@Override
+		public Uri insert(Uri uri, ContentValues values) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int delete(Uri uri, String selection, String[] selectionArgs) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package yoavbz.dupimg.decode;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the 1/8 scale decoding against the 8x8 block means of ImageIO's full decoding, on JPEGs encoded by ImageIO
+ */
+public class JpegDcDecoderTest {
+
+	// The maximal mean luma difference, in levels
+	private static final double MAX_LUMA_ERROR = 1;
+	// The maximal mean difference per RGB channel, in levels. Higher since ImageIO subsamples the chroma to 16x16
+	// blocks (which the 1/8 scale decoding replicates) and upsamples it smoothly
+	private static final double MAX_RGB_ERROR = 5;
+
+	@Test
+	public void decodesBaselineJpeg() throws IOException {
+		assertMatchesImageIo(encode(createImage(640, 480, BufferedImage.TYPE_INT_RGB), false));
+	}
+
+	@Test
+	public void decodesProgressiveJpeg() throws IOException {
+		assertMatchesImageIo(encode(createImage(640, 480, BufferedImage.TYPE_INT_RGB), true));
+	}
+
+	@Test
+	public void decodesGrayJpeg() throws IOException {
+		assertMatchesImageIo(encode(createImage(640, 480, BufferedImage.TYPE_BYTE_GRAY), false));
+		assertMatchesImageIo(encode(createImage(640, 480, BufferedImage.TYPE_BYTE_GRAY), true));
+	}
+
+	@Test
+	public void decodesOddSizedJpeg() throws IOException {
+		assertMatchesImageIo(encode(createImage(1001, 777, BufferedImage.TYPE_INT_RGB), false));
+		assertMatchesImageIo(encode(createImage(33, 17, BufferedImage.TYPE_INT_RGB), true));
+	}
+
+	@Test
+	public void writesScaledRgb() throws IOException {
+		byte[] jpeg = encode(createImage(640, 480, BufferedImage.TYPE_INT_RGB), false);
+		JpegDcDecoder.DcImage image = JpegDcDecoder.decode(jpeg, jpeg.length);
+		ByteBuffer out = ByteBuffer.allocate(224 * 224 * 3);
+		image.writeRgb(out, 224);
+		assertEquals(0, out.remaining());
+	}
+
+	@Test(timeout = 60000)
+	public void rejectsTruncatedAndCorruptJpegs() throws IOException {
+		byte[] jpeg = encode(createImage(320, 240, BufferedImage.TYPE_INT_RGB), true);
+		Random random = new Random(42);
+		for (int i = 0; i < 2000; i++) {
+			byte[] corrupt;
+			if (i % 2 == 0) {
+				corrupt = Arrays.copyOf(jpeg, random.nextInt(jpeg.length));
+			} else {
+				corrupt = jpeg.clone();
+				for (int j = 0; j < 1 + random.nextInt(8); j++) {
+					corrupt[random.nextInt(corrupt.length)] = (byte) random.nextInt(256);
+				}
+			}
+			try {
+				JpegDcDecoder.decode(corrupt, corrupt.length);
+			} catch (IOException e) {
+				// Expected, any other exception fails the test
+			}
+		}
+	}
+
+	/**
+	 * Asserts the decoded image has the 1/8 scale dimensions, and its pixels match the full decoding block means
+	 */
+	private static void assertMatchesImageIo(byte[] jpeg) throws IOException {
+		BufferedImage expected = ImageIO.read(new ByteArrayInputStream(jpeg));
+		JpegDcDecoder.DcImage image = JpegDcDecoder.decode(jpeg, jpeg.length);
+		int width = expected.getWidth();
+		int height = expected.getHeight();
+		assertEquals((width + 7) / 8, image.getWidth());
+		assertEquals((height + 7) / 8, image.getHeight());
+		boolean gray = expected.getType() == BufferedImage.TYPE_BYTE_GRAY;
+		double lumaError = 0;
+		double rgbError = 0;
+		int count = 0;
+		// Comparing the full blocks only, the decoder doesn't know the content of the padding
+		for (int blockY = 0; blockY < height / 8; blockY++) {
+			for (int blockX = 0; blockX < width / 8; blockX++) {
+				long r = 0;
+				long g = 0;
+				long b = 0;
+				for (int y = blockY * 8; y < blockY * 8 + 8; y++) {
+					for (int x = blockX * 8; x < blockX * 8 + 8; x++) {
+						int pixel = gray ? expected.getRaster().getSample(x, y, 0) * 0x10101 : expected.getRGB(x, y);
+						r += (pixel >> 16) & 0xFF;
+						g += (pixel >> 8) & 0xFF;
+						b += pixel & 0xFF;
+					}
+				}
+				int pixel = image.getPixels()[blockY * image.getWidth() + blockX];
+				int actualR = (pixel >> 16) & 0xFF;
+				int actualG = (pixel >> 8) & 0xFF;
+				int actualB = pixel & 0xFF;
+				lumaError += Math.abs(luma(r / 64.0, g / 64.0, b / 64.0) - luma(actualR, actualG, actualB));
+				rgbError += (Math.abs(r / 64.0 - actualR) + Math.abs(g / 64.0 - actualG) +
+						Math.abs(b / 64.0 - actualB)) / 3;
+				count++;
+			}
+		}
+		assertTrue("Mean luma error " + lumaError / count, lumaError / count < MAX_LUMA_ERROR);
+		assertTrue("Mean RGB error " + rgbError / count, rgbError / count < MAX_RGB_ERROR);
+	}
+
+	private static double luma(double r, double g, double b) {
+		return 0.299 * r + 0.587 * g + 0.114 * b;
+	}
+
+	private static BufferedImage createImage(int width, int height, int type) {
+		BufferedImage image = new BufferedImage(width, height, type);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int r = (int) (127 + 100 * Math.sin(x / 37.0));
+				int g = (int) (127 + 100 * Math.cos(y / 23.0));
+				int b = (int) (127 + 100 * Math.sin((x + y) / 51.0));
+				image.setRGB(x, y, (r << 16) | (g << 8) | b);
+			}
+		}
+		return image;
+	}
+
+	private static byte[] encode(BufferedImage image, boolean progressive) throws IOException {
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		param.setCompressionQuality(0.9f);
+		if (progressive) {
+			param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+			writer.setOutput(stream);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return out.toByteArray();
+	}
+}